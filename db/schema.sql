@@ -1,46 +1,93 @@
-CREATE SCHEMA IF NOT EXISTS roster_reconciler;
+-- Reference schema for --db-log, matching DbLogger.migrations for the default schema.
+-- The CLI creates and upgrades these objects itself; apply this file only to provision
+-- a database ahead of the first run. Keep it in step with new migrations.
+CREATE SCHEMA IF NOT EXISTS gs_roster_reconciler;
 
-CREATE TABLE IF NOT EXISTS roster_reconciler.roster_runs (
-  id uuid PRIMARY KEY,
+CREATE TABLE IF NOT EXISTS gs_roster_reconciler.schema_migrations (
+  version integer PRIMARY KEY,
+  applied_at timestamptz NOT NULL DEFAULT now()
+);
+
+-- Version 1
+CREATE TABLE IF NOT EXISTS gs_roster_reconciler.runs (
+  run_id uuid PRIMARY KEY,
+  created_at timestamptz NOT NULL,
   app text NOT NULL,
   previous_path text NOT NULL,
   current_path text NOT NULL,
-  key_columns text[] NOT NULL,
+  key_columns text NOT NULL,
   key_normalize text NOT NULL,
   value_normalize text NOT NULL,
+  ignored_fields text,
+  unknown_ignored_fields text,
   summary_only boolean NOT NULL,
-  detail_limit integer,
-  export_dir text,
-  export_unchanged boolean NOT NULL,
-  export_updated_rows boolean NOT NULL,
-  export_status boolean NOT NULL,
-  json_path text,
-  started_at timestamptz NOT NULL,
-  finished_at timestamptz NOT NULL,
-  duration_ms integer NOT NULL,
+  detail_limit integer NOT NULL,
   total_previous integer NOT NULL,
   total_current integer NOT NULL,
   added integer NOT NULL,
   removed integer NOT NULL,
   updated integer NOT NULL,
   unchanged integer NOT NULL,
-  duplicate_previous integer NOT NULL,
-  duplicate_current integer NOT NULL,
-  invalid_previous integer NOT NULL,
-  invalid_current integer NOT NULL,
+  duplicate_keys_previous integer NOT NULL,
+  duplicate_keys_current integer NOT NULL,
+  invalid_rows_previous integer NOT NULL,
+  invalid_rows_current integer NOT NULL,
   net_change integer NOT NULL,
   net_change_pct_previous numeric,
   added_pct_current numeric,
   removed_pct_previous numeric,
   updated_pct_shared numeric,
   unchanged_pct_shared numeric,
-  field_change_counts jsonb,
-  missing_key_counts_previous jsonb,
-  missing_key_counts_current jsonb,
-  completeness_previous jsonb,
-  completeness_current jsonb,
-  created_at timestamptz NOT NULL DEFAULT now()
+  export_dir text,
+  export_unchanged boolean,
+  export_updated_rows boolean,
+  export_status boolean,
+  json_path text,
+  started_at timestamptz,
+  finished_at timestamptz
+);
+
+CREATE TABLE IF NOT EXISTS gs_roster_reconciler.field_change_counts (
+  run_id uuid REFERENCES gs_roster_reconciler.runs(run_id) ON DELETE CASCADE,
+  field_name text NOT NULL,
+  change_count integer NOT NULL
 );
 
-CREATE INDEX IF NOT EXISTS roster_runs_started_at_idx
-  ON roster_reconciler.roster_runs (started_at);
+CREATE TABLE IF NOT EXISTS gs_roster_reconciler.missing_key_counts (
+  run_id uuid REFERENCES gs_roster_reconciler.runs(run_id) ON DELETE CASCADE,
+  roster_side text NOT NULL,
+  key_column text NOT NULL,
+  missing_count integer NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS gs_roster_reconciler.field_completeness (
+  run_id uuid REFERENCES gs_roster_reconciler.runs(run_id) ON DELETE CASCADE,
+  roster_side text NOT NULL,
+  field_name text NOT NULL,
+  non_empty integer NOT NULL,
+  total_rows integer NOT NULL,
+  pct numeric
+);
+
+-- Version 2
+CREATE TABLE IF NOT EXISTS gs_roster_reconciler.key_changes (
+  run_id uuid NOT NULL REFERENCES gs_roster_reconciler.runs(run_id) ON DELETE CASCADE,
+  recorded_at timestamptz NOT NULL,
+  change_type text NOT NULL,
+  record_key text NOT NULL,
+  field_name text NOT NULL,
+  before_value text,
+  after_value text
+) PARTITION BY RANGE (recorded_at);
+
+CREATE INDEX IF NOT EXISTS key_changes_key_idx ON gs_roster_reconciler.key_changes (record_key, field_name);
+
+CREATE INDEX IF NOT EXISTS key_changes_field_idx ON gs_roster_reconciler.key_changes (field_name);
+
+CREATE INDEX IF NOT EXISTS key_changes_run_idx ON gs_roster_reconciler.key_changes (run_id);
+
+-- key_changes is partitioned by month of recorded_at. The CLI creates
+-- key_changes_<yyyymm> FOR VALUES FROM (<month start>) TO (<next month start>), in UTC,
+-- when a run first needs it.
+
+INSERT INTO gs_roster_reconciler.schema_migrations (version) VALUES (1), (2) ON CONFLICT (version) DO NOTHING;
@@ -1,29 +1,23 @@
-INSERT INTO roster_reconciler.roster_runs (
-  id, app, previous_path, current_path, key_columns, key_normalize, value_normalize,
-  summary_only, detail_limit, export_dir, export_unchanged, export_updated_rows, export_status,
-  json_path, started_at, finished_at, duration_ms, total_previous, total_current, added, removed,
-  updated, unchanged, duplicate_previous, duplicate_current, invalid_previous, invalid_current,
-  net_change, net_change_pct_previous, added_pct_current, removed_pct_previous, updated_pct_shared,
-  unchanged_pct_shared, field_change_counts, missing_key_counts_previous, missing_key_counts_current,
-  completeness_previous, completeness_current
+INSERT INTO gs_roster_reconciler.runs (
+  run_id, created_at, app, previous_path, current_path, key_columns, key_normalize, value_normalize,
+  ignored_fields, unknown_ignored_fields, summary_only, detail_limit, total_previous, total_current,
+  added, removed, updated, unchanged, duplicate_keys_previous, duplicate_keys_current,
+  invalid_rows_previous, invalid_rows_current, net_change, net_change_pct_previous, added_pct_current,
+  removed_pct_previous, updated_pct_shared, unchanged_pct_shared, export_dir, export_unchanged,
+  export_updated_rows, export_status, json_path, started_at, finished_at
 ) VALUES (
   '0b7d3f75-9e7c-4d5f-9b8b-3af18d1b1b6e',
+  '2026-02-08T17:00:00Z',
   'roster-reconciler',
   'data/roster_prev.csv',
   'data/roster_current.csv',
-  ARRAY['email'],
+  'email',
   'none',
   'none',
-  false,
   NULL,
-  'out/exports',
-  true,
-  true,
-  true,
-  'report.json',
-  '2026-02-08T17:00:00Z',
-  '2026-02-08T17:00:05Z',
-  5000,
+  NULL,
+  false,
+  0,
   120,
   124,
   6,
@@ -35,14 +29,36 @@ INSERT INTO roster_reconciler.roster_runs (
   0,
   0,
   4,
-  3.33,
-  4.84,
-  1.67,
-  3.57,
-  96.43,
-  '{"status":4,"cohort":2}'::jsonb,
-  '{}'::jsonb,
-  '{}'::jsonb,
-  '{"email":{"non_empty":120,"total":120,"pct":100.0},"cohort":{"non_empty":118,"total":120,"pct":98.3333}}'::jsonb,
-  '{"email":{"non_empty":124,"total":124,"pct":100.0},"cohort":{"non_empty":123,"total":124,"pct":99.1935}}'::jsonb
+  0.0333,
+  0.0484,
+  0.0167,
+  0.0357,
+  0.9643,
+  'out/exports',
+  true,
+  true,
+  true,
+  'report.json',
+  '2026-02-08T17:00:00Z',
+  '2026-02-08T17:00:05Z'
 );
+
+INSERT INTO gs_roster_reconciler.field_change_counts (run_id, field_name, change_count) VALUES
+  ('0b7d3f75-9e7c-4d5f-9b8b-3af18d1b1b6e', 'status', 4),
+  ('0b7d3f75-9e7c-4d5f-9b8b-3af18d1b1b6e', 'cohort', 2);
+
+INSERT INTO gs_roster_reconciler.field_completeness
+  (run_id, roster_side, field_name, non_empty, total_rows, pct) VALUES
+  ('0b7d3f75-9e7c-4d5f-9b8b-3af18d1b1b6e', 'previous', 'email', 120, 120, 1.0),
+  ('0b7d3f75-9e7c-4d5f-9b8b-3af18d1b1b6e', 'previous', 'cohort', 118, 120, 0.983333),
+  ('0b7d3f75-9e7c-4d5f-9b8b-3af18d1b1b6e', 'current', 'email', 124, 124, 1.0),
+  ('0b7d3f75-9e7c-4d5f-9b8b-3af18d1b1b6e', 'current', 'cohort', 123, 124, 0.991935);
+
+CREATE TABLE IF NOT EXISTS gs_roster_reconciler.key_changes_202602
+  PARTITION OF gs_roster_reconciler.key_changes
+  FOR VALUES FROM ('2026-02-01 00:00:00+00') TO ('2026-03-01 00:00:00+00');
+
+INSERT INTO gs_roster_reconciler.key_changes
+  (run_id, recorded_at, change_type, record_key, field_name, before_value, after_value) VALUES
+  ('0b7d3f75-9e7c-4d5f-9b8b-3af18d1b1b6e', '2026-02-08T17:00:00Z', 'updated', 'darius.king@example.org', 'region',
+   'Midwest', 'South');
@@ -1,30 +1,70 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
-import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.CRC32C;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class Main {
     private static final String DEFAULT_KEY = "email";
+    private static final int READ_BUFFER_SIZE = 1 << 16;
 
     public static void main(String[] args) {
         Map<String, String> options = parseArgs(args);
@@ -45,39 +85,129 @@ public class Main {
         boolean exportUnchanged = options.containsKey("export-unchanged");
         boolean exportUpdatedRows = options.containsKey("export-updated-rows");
         boolean exportStatus = options.containsKey("export-status");
+        boolean parallelExport = options.containsKey("parallel-export");
+        boolean exportGzip = options.containsKey("export-gzip");
+        String exportFormatRaw = options.get("export-format");
+        String ndjsonPath = options.get("ndjson");
         boolean summaryOnly = options.containsKey("summary-only");
+        boolean sortedInput = options.containsKey("sorted-input");
+        boolean externalSort = options.containsKey("external-sort");
+        String sortDir = options.get("sort-dir");
+        String partitionDir = options.get("partition-dir");
+        String snapshotOut = options.get("snapshot-out");
+        boolean mmap = options.containsKey("mmap");
+        boolean parallelParse = options.containsKey("parallel-parse");
         boolean dbLog = options.containsKey("db-log");
         String dbSchema = options.getOrDefault("db-schema", "gs_roster_reconciler");
         String dbApp = options.getOrDefault("db-app", "roster-reconciler");
+        boolean dbCopy = options.containsKey("db-copy");
+        boolean dbLogChanges = options.containsKey("db-log-changes");
         int detailLimit = 0;
+        int threads = 1;
         Set<String> ignoredFields = parseIgnoredFields(options.get("ignore"));
+        DictionaryEncoding dictionaries = DictionaryEncoding.parse(options.get("dict-columns"));
 
         try {
             validateKeyNormalize(keyNormalize);
             validateValueNormalize(valueNormalize);
             if (dbLog) {
                 validateSchemaName(dbSchema);
+            } else if (dbLogChanges) {
+                throw new IOException("--db-log-changes requires --db-log");
             }
             detailLimit = parseDetailLimit(options.get("max-detail"));
-            Roster previous = readRoster(Path.of(previousPath), keyColumns, keyNormalize);
-            Roster current = readRoster(Path.of(currentPath), keyColumns, keyNormalize);
-            Report report = diff(previous, current, keyColumns, ignoredFields, keyNormalize, valueNormalize, summaryOnly, detailLimit);
+            threads = parsePositiveInt(options.get("threads"), "threads", 1);
+            ExportFormat exportFormat = ExportFormat.parse(exportFormatRaw, exportGzip);
+            DbWriteOptions writeOptions = new DbWriteOptions(
+                    parsePositiveInt(options.get("db-batch-size"), "db-batch-size", DbWriteOptions.DEFAULT_BATCH_SIZE),
+                    dbCopy);
+            RosterLoadOptions loadOptions = new RosterLoadOptions(keyColumns, keyNormalize, dictionaries,
+                    new FingerprintSpec(ignoredFields, valueNormalize));
+            boolean exporting = exportDir != null && !exportDir.isBlank();
+            Report report;
+            int partitions = parsePositiveInt(options.get("partitions"), "partitions", 1);
+            boolean partitioned = partitions > 1;
+            if ((sortedInput ? 1 : 0) + (externalSort ? 1 : 0) + (partitioned ? 1 : 0) > 1) {
+                throw new IOException("Use only one of --sorted-input, --external-sort and --partitions");
+            }
+            boolean streaming = sortedInput || externalSort || partitioned;
+            boolean previousSnapshot = RosterSnapshot.isSnapshot(Path.of(previousPath));
+            if (streaming && (previousSnapshot || snapshotOut != null)) {
+                throw new IOException("Roster snapshots need the in-memory reconcile; drop --sorted-input, --external-sort and --partitions");
+            }
+            if (parallelParse && (streaming || mmap)) {
+                throw new IOException("Use --parallel-parse without --mmap, --sorted-input, --external-sort and --partitions");
+            }
+            int parseThreads = !parallelParse ? 1
+                    : threads > 1 ? threads : Runtime.getRuntime().availableProcessors();
+            boolean ndjson = ndjsonPath != null && !ndjsonPath.isBlank();
+            DbChangeLog changeLog = dbLogChanges ? DbChangeLog.create() : null;
+            DiffListener events = DiffListener.combine(
+                    exporting && streaming
+                            ? new ExportSink(Path.of(exportDir), exportUnchanged, exportUpdatedRows, exportStatus,
+                                    exportFormat)
+                            : DiffListener.NONE,
+                    ndjson ? new NdjsonSink(Path.of(ndjsonPath)) : DiffListener.NONE,
+                    changeLog != null ? changeLog : DiffListener.NONE);
+            if (partitioned) {
+                try (events) {
+                    report = partitionedDiff(Path.of(previousPath), Path.of(currentPath), loadOptions, ignoredFields,
+                            valueNormalize, summaryOnly, detailLimit, partitions, threads, partitionDir, events);
+                }
+            } else if (externalSort) {
+                int sortBufferMb = parsePositiveInt(options.get("sort-buffer-mb"), "sort-buffer-mb",
+                        ExternalSorter.DEFAULT_BUFFER_MB);
+                try (ExternalSorter sorter = ExternalSorter.create(sortDir, sortBufferMb);
+                     SortedRoster previous = sorter.sort(Path.of(previousPath), loadOptions);
+                     SortedRoster current = sorter.sort(Path.of(currentPath), loadOptions);
+                     RosterCursor prevCursor = RosterCursor.open(previous);
+                     RosterCursor curCursor = RosterCursor.open(current);
+                     events) {
+                    report = mergeDiff(prevCursor, curCursor, loadOptions, ignoredFields, valueNormalize, summaryOnly,
+                            detailLimit, events);
+                }
+            } else if (sortedInput) {
+                try (events) {
+                    report = mergeDiff(Path.of(previousPath), Path.of(currentPath), loadOptions, ignoredFields,
+                            valueNormalize, summaryOnly, detailLimit, events);
+                }
+            } else {
+                int loadThreads = parseThreads;
+                RosterPair rosters = loadConcurrently(
+                        () -> previousSnapshot
+                                ? RosterSnapshot.read(Path.of(previousPath), loadOptions)
+                                : loadRoster(Path.of(previousPath), loadOptions, mmap, loadThreads),
+                        () -> loadRoster(Path.of(currentPath), loadOptions, mmap, loadThreads));
+                Roster previous = rosters.previous();
+                Roster current = rosters.current();
+                if (snapshotOut != null && !snapshotOut.isBlank()) {
+                    RosterSnapshot.write(Path.of(snapshotOut), Path.of(currentPath), current, loadOptions);
+                }
+                report = diff(previous, current, keyColumns, ignoredFields, keyNormalize, valueNormalize, summaryOnly,
+                        detailLimit, threads);
+                try (events) {
+                    if (events != DiffListener.NONE) {
+                        report.replay(events);
+                    }
+                }
+            }
 
             String output = report.toText(previousPath, currentPath);
             System.out.println(output);
 
             if (jsonPath != null && !jsonPath.isBlank()) {
-                Files.writeString(Path.of(jsonPath), report.toJson(previousPath, currentPath), StandardCharsets.UTF_8);
+                report.writeJson(Path.of(jsonPath), previousPath, currentPath);
             }
 
-            if (exportDir != null && !exportDir.isBlank()) {
-                report.writeExports(Path.of(exportDir), exportUnchanged, exportUpdatedRows, exportStatus);
+            if (exporting && !streaming) {
+                report.writeExports(Path.of(exportDir), exportUnchanged, exportUpdatedRows, exportStatus, parallelExport,
+                        exportFormat);
             }
             Instant finishedAt = Instant.now();
             if (dbLog) {
                 DbRunOptions runOptions = new DbRunOptions(exportDir, exportUnchanged, exportUpdatedRows, exportStatus, jsonPath);
                 DbLogger.logRun(report, previousPath, currentPath, dbApp, dbSchema, keyColumns, keyNormalize, valueNormalize,
-                        summaryOnly, detailLimit, runOptions, startedAt, finishedAt);
+                        summaryOnly, detailLimit, runOptions, writeOptions, changeLog, startedAt, finishedAt);
             }
         } catch (IOException e) {
             System.err.println("Error: " + e.getMessage());
@@ -86,7 +216,7 @@ public class Main {
     }
 
     private static void printUsage() {
-        System.out.println("Usage: java -cp out Main --previous <file.csv> --current <file.csv> [--key email] [--key-normalize none|lower|upper] [--value-normalize none|trim|collapse] [--ignore field1,field2] [--max-detail N] [--summary-only] [--json report.json] [--export-dir outdir] [--export-unchanged] [--export-updated-rows] [--export-status] [--db-log] [--db-schema gs_roster_reconciler] [--db-app roster-reconciler]");
+        System.out.println("Usage: java -cp out Main --previous <file.csv[.gz]|roster.snap> --current <file.csv[.gz]> [--key email] [--key-normalize none|lower|upper] [--value-normalize none|trim|collapse] [--ignore field1,field2] [--dict-columns auto|field1,field2] [--max-detail N] [--threads N] [--mmap] [--parallel-parse] [--sorted-input] [--external-sort] [--sort-dir dir] [--sort-buffer-mb N] [--partitions N] [--partition-dir dir] [--snapshot-out roster.snap] [--summary-only] [--json report.json[.gz]] [--ndjson changes.ndjson[.gz]] [--export-dir outdir] [--export-unchanged] [--export-updated-rows] [--export-status] [--parallel-export] [--export-format csv|columnar] [--export-gzip] [--db-log] [--db-schema gs_roster_reconciler] [--db-app roster-reconciler] [--db-batch-size N] [--db-copy] [--db-log-changes]");
     }
 
     private static Map<String, String> parseArgs(String[] args) {
@@ -102,312 +232,3911 @@ public class Main {
                 value = args[i + 1];
                 i++;
             }
-            options.put(name, value);
+            options.put(name, value);
+        }
+        return options;
+    }
+
+    private static Set<String> parseIgnoredFields(String raw) {
+        Set<String> ignored = new HashSet<>();
+        if (raw == null || raw.isBlank()) {
+            return ignored;
+        }
+        String[] parts = raw.split(",");
+        for (String part : parts) {
+            String trimmed = part.trim();
+            if (!trimmed.isBlank()) {
+                ignored.add(trimmed);
+            }
+        }
+        return ignored;
+    }
+
+    private static List<String> parseKeyColumns(String raw) {
+        List<String> columns = new ArrayList<>();
+        if (raw == null || raw.isBlank()) {
+            columns.add(DEFAULT_KEY);
+            return columns;
+        }
+        String[] parts = raw.split(",");
+        for (String part : parts) {
+            String trimmed = part.trim();
+            if (!trimmed.isBlank()) {
+                columns.add(trimmed);
+            }
+        }
+        if (columns.isEmpty()) {
+            columns.add(DEFAULT_KEY);
+        }
+        return columns;
+    }
+
+    private static void validateKeyNormalize(String keyNormalize) throws IOException {
+        if (!keyNormalize.equals("none") && !keyNormalize.equals("lower") && !keyNormalize.equals("upper")) {
+            throw new IOException("Invalid --key-normalize value: " + keyNormalize + " (use none|lower|upper)");
+        }
+    }
+
+    private static void validateValueNormalize(String valueNormalize) throws IOException {
+        if (!valueNormalize.equals("none") && !valueNormalize.equals("trim") && !valueNormalize.equals("collapse")) {
+            throw new IOException("Invalid --value-normalize value: " + valueNormalize + " (use none|trim|collapse)");
+        }
+    }
+
+    private static void validateSchemaName(String schema) throws IOException {
+        if (schema == null || schema.isBlank()) {
+            throw new IOException("Invalid --db-schema value: cannot be blank");
+        }
+        if (!schema.matches("[A-Za-z_][A-Za-z0-9_]*")) {
+            throw new IOException("Invalid --db-schema value: " + schema + " (use letters, numbers, underscores)");
+        }
+    }
+
+    private static int parseDetailLimit(String raw) throws IOException {
+        if (raw == null || raw.isBlank()) {
+            return 0;
+        }
+        try {
+            int value = Integer.parseInt(raw.trim());
+            if (value < 0) {
+                throw new IOException("Invalid --max-detail value: " + raw + " (must be >= 0)");
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid --max-detail value: " + raw + " (must be an integer)", e);
+        }
+    }
+
+    private static int parsePositiveInt(String raw, String flag, int fallback) throws IOException {
+        if (raw == null || raw.isBlank()) {
+            return fallback;
+        }
+        try {
+            int value = Integer.parseInt(raw.trim());
+            if (value < 1) {
+                throw new IOException("Invalid --" + flag + " value: " + raw + " (must be >= 1)");
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid --" + flag + " value: " + raw + " (must be an integer)", e);
+        }
+    }
+
+    static String normalizeKeyValue(String value, String keyNormalize) {
+        if (value == null) {
+            return "";
+        }
+        return switch (keyNormalize) {
+            case "lower" -> value.toLowerCase();
+            case "upper" -> value.toUpperCase();
+            default -> value;
+        };
+    }
+
+    static String normalizeFieldValue(String value, String valueNormalize) {
+        if (value == null) {
+            return "";
+        }
+        return switch (valueNormalize) {
+            case "trim" -> value.trim();
+            case "collapse" -> collapseWhitespace(value.trim());
+            default -> value;
+        };
+    }
+
+    /**
+     * {@code value.replaceAll("\\s+", " ")} without the regex: returns {@code value} itself when it has no run to
+     * collapse, which is the common case.
+     */
+    private static String collapseWhitespace(String value) {
+        int length = value.length();
+        int i = 0;
+        while (i < length) {
+            char c = value.charAt(i);
+            if (isRegexSpace(c) && (c != ' ' || (i + 1 < length && isRegexSpace(value.charAt(i + 1))))) {
+                break;
+            }
+            i++;
+        }
+        if (i == length) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(length).append(value, 0, i);
+        while (i < length) {
+            char c = value.charAt(i++);
+            if (isRegexSpace(c)) {
+                while (i < length && isRegexSpace(value.charAt(i))) {
+                    i++;
+                }
+                sb.append(' ');
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Whether {@code normalizeFieldValue(before)} equals {@code normalizeFieldValue(after)}, decided by walking both
+     * values in place: no trimmed or collapsed copies and no regex. This is the per-field test in the diff loop.
+     */
+    static boolean normalizedEquals(String before, String after, String valueNormalize) {
+        String left = before == null ? "" : before;
+        String right = after == null ? "" : after;
+        if (left.equals(right)) {
+            return true;
+        }
+        return switch (valueNormalize) {
+            case "trim" -> trimmedEquals(left, right);
+            case "collapse" -> collapsedEquals(left, right);
+            default -> false;
+        };
+    }
+
+    private static boolean trimmedEquals(String left, String right) {
+        int leftStart = trimStart(left);
+        int leftEnd = trimEnd(left, leftStart);
+        int rightStart = trimStart(right);
+        int rightEnd = trimEnd(right, rightStart);
+        int length = leftEnd - leftStart;
+        return length == rightEnd - rightStart && left.regionMatches(leftStart, right, rightStart, length);
+    }
+
+    /** Compares the trimmed values with each run of {@code \\s} characters standing for a single space. */
+    private static boolean collapsedEquals(String left, String right) {
+        int i = trimStart(left);
+        int leftEnd = trimEnd(left, i);
+        int j = trimStart(right);
+        int rightEnd = trimEnd(right, j);
+        while (i < leftEnd && j < rightEnd) {
+            char a = left.charAt(i++);
+            char b = right.charAt(j++);
+            boolean aSpace = isRegexSpace(a);
+            if (aSpace != isRegexSpace(b)) {
+                return false;
+            }
+            if (aSpace) {
+                while (i < leftEnd && isRegexSpace(left.charAt(i))) {
+                    i++;
+                }
+                while (j < rightEnd && isRegexSpace(right.charAt(j))) {
+                    j++;
+                }
+            } else if (a != b) {
+                return false;
+            }
+        }
+        return i == leftEnd && j == rightEnd;
+    }
+
+    /** {@link String#trim} bounds: everything up to and including U+0020 is trimmed. */
+    private static int trimStart(String value) {
+        int start = 0;
+        while (start < value.length() && value.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(String value, int start) {
+        int end = value.length();
+        while (end > start && value.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    /** The characters the regex {@code \\s} matches: space, tab, newline, vertical tab, form feed and return. */
+    private static boolean isRegexSpace(char c) {
+        return c == ' ' || (c >= '\t' && c <= '\r');
+    }
+
+    static Roster readRoster(Path path, List<String> keyColumns, String keyNormalize) throws IOException {
+        return readRoster(path, new RosterLoadOptions(keyColumns, keyNormalize, DictionaryEncoding.none()));
+    }
+
+    static Roster readRoster(Path path, RosterLoadOptions options) throws IOException {
+        try (CsvRecordReader reader = CsvRecordReader.open(path)) {
+            return readRoster(reader, path, options);
+        }
+    }
+
+    record RosterPair(Roster previous, Roster current) {}
+
+    /**
+     * Runs the two independent roster loads side by side and returns once both are ready, so wall-clock load time
+     * is the slower of the two rather than their sum. A failure in the previous load is reported first, as it would
+     * be sequentially. Loads may share {@link DictionaryEncoding} dictionaries, which are safe for this.
+     */
+    static RosterPair loadConcurrently(Callable<Roster> previousLoad, Callable<Roster> currentLoad) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Roster> previous = executor.submit(previousLoad);
+            Future<Roster> current = executor.submit(currentLoad);
+            return new RosterPair(await(previous), await(current));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Roster loadRoster(Path path, RosterLoadOptions options, boolean mmap, int parseThreads)
+            throws IOException {
+        if ((mmap || parseThreads > 1) && Compression.isGzip(path)) {
+            throw new IOException("--mmap and --parallel-parse need an uncompressed CSV: " + path);
+        }
+        if (mmap) {
+            return readMappedRoster(path, options);
+        }
+        if (parseThreads > 1) {
+            return readRosterParallel(path, options, parseThreads);
+        }
+        return readRoster(path, options);
+    }
+
+    /**
+     * Parses one roster on {@code threads} workers ({@code --parallel-parse}). {@link CsvChunk#split} cuts the file
+     * into byte ranges on record boundaries, each range is parsed by its own {@link CsvRecordReader}, and the chunks
+     * are merged in file order, so row order, first-wins duplicates and row numbers match {@link #readRoster}.
+     */
+    static Roster readRosterParallel(Path path, RosterLoadOptions options, int threads) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            List<CsvChunk> chunks = CsvChunk.split(channel, threads * CsvChunk.CHUNKS_PER_THREAD);
+            if (chunks.isEmpty()) {
+                throw new IOException("CSV is empty: " + path);
+            }
+            List<String> header;
+            try (CsvRecordReader reader = chunks.get(0).open(channel)) {
+                header = reader.header(path);
+            }
+            RosterAccounting accounting = new RosterAccounting(path, header, options);
+            RosterTable rows = new RosterTable(header, options.dictionaries(), options.fingerprints());
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<ParsedChunk>> futures = new ArrayList<>();
+                for (CsvChunk chunk : chunks.subList(1, chunks.size())) {
+                    futures.add(executor.submit(() -> ParsedChunk.parse(channel, chunk, path, header, options)));
+                }
+                for (Future<ParsedChunk> future : futures) {
+                    ParsedChunk parsed = await(future);
+                    accounting.absorb(parsed.accounting());
+                    for (int i = 0; i < parsed.keys().size(); i++) {
+                        String key = parsed.keys().get(i);
+                        if (rows.containsKey(key)) {
+                            accounting.duplicate(key);
+                        } else if (rows.fingerprinter() != null) {
+                            rows.add(key, parsed.rows().get(i), parsed.fingerprintHigh()[i],
+                                    parsed.fingerprintLow()[i]);
+                        } else {
+                            rows.add(key, parsed.rows().get(i));
+                        }
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            return accounting.toRoster(rows);
+        }
+    }
+
+    /**
+     * Byte range of a roster file holding whole records, plus the line its first record starts on. Ranges are cut
+     * only after a record terminator outside quotes, so each can be parsed on its own.
+     */
+    record CsvChunk(long start, long end, int firstLine) {
+        static final int CHUNKS_PER_THREAD = 4;
+        static final long MIN_CHUNK_BYTES = 1 << 20;
+
+        /**
+         * Splits a file into the header record followed by up to {@code count} ranges of whole records. A single
+         * sequential scan tracks quote state and line numbers the way {@link CsvRecordReader} does; it does no
+         * parsing or allocation, so it costs a fraction of the parse it divides.
+         */
+        static List<CsvChunk> split(FileChannel channel, int count) throws IOException {
+            long size = channel.size();
+            long step = Math.max(MIN_CHUNK_BYTES, size / count + 1);
+            List<CsvChunk> chunks = new ArrayList<>();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+            long start = 0;
+            int startLine = 1;
+            long nextCut = 0;
+            int line = 1;
+            boolean inQuotes = false;
+            boolean pendingCr = false;
+            boolean crOutsideQuotes = false;
+            long position = 0;
+            int read;
+            while ((read = channel.read(buffer, position)) > 0) {
+                buffer.flip();
+                for (int i = 0; i < read; i++) {
+                    byte b = buffer.get(i);
+                    long offset = position + i;
+                    long cut = -1;
+                    if (pendingCr) {
+                        pendingCr = false;
+                        line++;
+                        if (b == '\n') {
+                            if (crOutsideQuotes && offset + 1 >= nextCut) {
+                                cut = offset + 1;
+                            }
+                        } else if (crOutsideQuotes && offset >= nextCut) {
+                            cut = offset;
+                        }
+                        if (cut >= 0) {
+                            chunks.add(new CsvChunk(start, cut, startLine));
+                            start = cut;
+                            startLine = line;
+                            nextCut = cut + step;
+                            cut = -1;
+                        }
+                        if (b == '\n') {
+                            continue;
+                        }
+                    }
+                    if (b == '"') {
+                        inQuotes = !inQuotes;
+                    } else if (b == '\r') {
+                        pendingCr = true;
+                        crOutsideQuotes = !inQuotes;
+                    } else if (b == '\n') {
+                        line++;
+                        if (!inQuotes && offset + 1 >= nextCut) {
+                            cut = offset + 1;
+                        }
+                    }
+                    if (cut >= 0) {
+                        chunks.add(new CsvChunk(start, cut, startLine));
+                        start = cut;
+                        startLine = line;
+                        nextCut = cut + step;
+                    }
+                }
+                position += read;
+                buffer.clear();
+            }
+            if (start < size) {
+                chunks.add(new CsvChunk(start, size, startLine));
+            }
+            return chunks;
+        }
+
+        /** A reader over this range; the header chunk keeps BOM handling, later chunks start mid-file. */
+        CsvRecordReader open(FileChannel channel) {
+            Reader reader = Channels.newReader(new ChunkChannel(channel, start, end),
+                    StandardCharsets.UTF_8.newDecoder(), -1);
+            return start == 0 ? new CsvRecordReader(reader) : new CsvRecordReader(reader, firstLine);
+        }
+    }
+
+    /** Positional read-only view of part of a file, so workers can share one {@link FileChannel}. */
+    private static final class ChunkChannel implements ReadableByteChannel {
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+        private boolean open = true;
+
+        ChunkChannel(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int limit = dst.limit();
+            dst.limit(dst.position() + (int) Math.min(dst.remaining(), end - position));
+            try {
+                int read = channel.read(dst, position);
+                if (read > 0) {
+                    position += read;
+                }
+                return read;
+            } finally {
+                dst.limit(limit);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+
+    /** Keyed rows of one chunk in file order, with the chunk's own counts; duplicates are resolved on merge. */
+    record ParsedChunk(RosterAccounting accounting, List<String> keys, List<String[]> rows, long[] fingerprintHigh,
+                       long[] fingerprintLow) {
+        static ParsedChunk parse(FileChannel channel, CsvChunk chunk, Path path, List<String> header,
+                                 RosterLoadOptions options) throws IOException {
+            RosterAccounting accounting = new RosterAccounting(path, header, options);
+            RowFingerprinter fingerprinter = options.fingerprints() == null ? null : options.fingerprints().bind(header);
+            List<String> keys = new ArrayList<>();
+            List<String[]> rows = new ArrayList<>();
+            long[] high = new long[fingerprinter == null ? 0 : 1024];
+            long[] low = new long[high.length];
+            try (CsvRecordReader reader = chunk.open(channel)) {
+                while (reader.next()) {
+                    if (reader.blank()) {
+                        continue;
+                    }
+                    String[] values = accounting.values(reader);
+                    String key = accounting.key(values, reader.lineNumber());
+                    if (key == null) {
+                        continue;
+                    }
+                    if (fingerprinter != null) {
+                        if (keys.size() == high.length) {
+                            high = Arrays.copyOf(high, high.length * 2);
+                            low = Arrays.copyOf(low, low.length * 2);
+                        }
+                        fingerprinter.fingerprint(values, high, low, keys.size());
+                    }
+                    keys.add(key);
+                    rows.add(values);
+                }
+            }
+            return new ParsedChunk(accounting, keys, rows, high, low);
+        }
+    }
+
+    /**
+     * Loads a roster through {@link MappedCsv} ({@code --mmap}): fields stay as slices of the mapped file and only
+     * key columns are decoded while loading. Produces the same {@link Roster} as {@link #readRoster}.
+     */
+    static Roster readMappedRoster(Path path, RosterLoadOptions options) throws IOException {
+        MappedCsv csv = MappedCsv.map(path);
+        if (!csv.nextLine()) {
+            throw new IOException("CSV is empty: " + path);
+        }
+
+        List<String> header = parseCsvLine(csv.line());
+        RosterAccounting accounting = new RosterAccounting(path, header, options);
+        RosterTable rows = new RosterTable(header, options.dictionaries(), options.fingerprints(), csv);
+        long[] slices = new long[header.size()];
+        String[] keyValues = new String[header.size()];
+
+        while (csv.nextLine()) {
+            if (csv.blank()) {
+                continue;
+            }
+            csv.split(slices);
+            accounting.count(csv, slices);
+            for (int column : accounting.keyColumnIndexes) {
+                keyValues[column] = csv.decode(slices[column]);
+            }
+            String compositeKey = accounting.key(keyValues, csv.lineNumber());
+            if (compositeKey == null) {
+                continue;
+            }
+
+            if (rows.containsKey(compositeKey)) {
+                accounting.duplicate(compositeKey);
+                continue;
+            }
+
+            rows.addSlices(compositeKey, slices);
+        }
+
+        return accounting.toRoster(rows);
+    }
+
+    private static Roster readRoster(CsvRecordReader reader, Path path, RosterLoadOptions options) throws IOException {
+        List<String> header = reader.header(path);
+        RosterAccounting accounting = new RosterAccounting(path, header, options);
+        RosterTable rows = new RosterTable(header, options.dictionaries(), options.fingerprints());
+
+        while (reader.next()) {
+            if (reader.blank()) {
+                continue;
+            }
+            String[] values = accounting.values(reader);
+            String compositeKey = accounting.key(values, reader.lineNumber());
+            if (compositeKey == null) {
+                continue;
+            }
+
+            if (rows.containsKey(compositeKey)) {
+                accounting.duplicate(compositeKey);
+                continue;
+            }
+
+            rows.add(compositeKey, values);
+        }
+
+        return accounting.toRoster(rows);
+    }
+
+    /**
+     * Load-time accounting for one roster: completeness, missing key columns, invalid rows and duplicate keys.
+     * Shared by the in-memory loader and the streaming {@link RosterCursor} so both count rows the same way.
+     */
+    static final class RosterAccounting {
+        private final List<String> header;
+        private final List<String> keyColumns;
+        private final String keyNormalize;
+        private final int[] keyColumnIndexes;
+        private final Map<String, Integer> nonEmptyCounts = new LinkedHashMap<>();
+        private final Map<String, Integer> missingKeyCounts = new LinkedHashMap<>();
+        private final List<String> duplicateKeys = new ArrayList<>();
+        private final List<Integer> invalidRows = new ArrayList<>();
+        /** Reused by {@link #key}, which only the single thread that counts a roster calls. */
+        private final StringBuilder keyBuilder = new StringBuilder();
+        private int duplicates;
+        private int invalid;
+        private int totalRows;
+
+        RosterAccounting(Path path, List<String> header, RosterLoadOptions options) throws IOException {
+            this.header = header;
+            this.keyColumns = options.keyColumns();
+            this.keyNormalize = options.keyNormalize();
+            List<String> missingKeys = new ArrayList<>();
+            for (String keyColumn : keyColumns) {
+                if (!header.contains(keyColumn)) {
+                    missingKeys.add(keyColumn);
+                }
+            }
+            if (!missingKeys.isEmpty()) {
+                throw new IOException("Key column(s) " + String.join(", ", missingKeys) + " not found in: " + path);
+            }
+            this.keyColumnIndexes = columnIndexes(header, keyColumns);
+            for (String field : header) {
+                nonEmptyCounts.put(field, 0);
+            }
+        }
+
+        String[] values(CsvRecordReader record) {
+            totalRows++;
+            String[] values = record.values(header.size());
+            for (int j = 0; j < values.length; j++) {
+                if (!values[j].trim().isBlank()) {
+                    nonEmptyCounts.put(header.get(j), nonEmptyCounts.get(header.get(j)) + 1);
+                }
+            }
+            return values;
+        }
+
+        /** Counts a mapped row the way {@link #values} counts a parsed one. */
+        void count(MappedCsv csv, long[] slices) {
+            totalRows++;
+            for (int j = 0; j < slices.length; j++) {
+                if (csv.nonBlank(slices[j])) {
+                    nonEmptyCounts.put(header.get(j), nonEmptyCounts.get(header.get(j)) + 1);
+                }
+            }
+        }
+
+        int width() {
+            return header.size();
+        }
+
+        /**
+         * Composite key of an already-counted row, or null if a key column is blank. Partition workers share one
+         * accounting object, so this builds into a local builder rather than {@link #keyBuilder}.
+         */
+        String compositeKey(String[] values) {
+            if (keyColumnIndexes.length == 1) {
+                String raw = values[keyColumnIndexes[0]].trim();
+                return raw.isBlank() ? null : normalizeKeyValue(raw, keyNormalize);
+            }
+            StringBuilder builder = new StringBuilder();
+            for (int k = 0; k < keyColumnIndexes.length; k++) {
+                String raw = values[keyColumnIndexes[k]].trim();
+                if (raw.isBlank()) {
+                    return null;
+                }
+                appendKeyPart(builder, k, normalizeKeyValue(raw, keyNormalize));
+            }
+            return builder.toString();
+        }
+
+        String key(String[] values, int rowNumber) {
+            if (keyColumnIndexes.length == 1) {
+                String raw = values[keyColumnIndexes[0]].trim();
+                if (!raw.isBlank()) {
+                    return normalizeKeyValue(raw, keyNormalize);
+                }
+                missingKeyCounts.merge(keyColumns.get(0), 1, Integer::sum);
+                invalid++;
+                invalidRows.add(rowNumber);
+                return null;
+            }
+            keyBuilder.setLength(0);
+            boolean missingKey = false;
+            for (int k = 0; k < keyColumns.size(); k++) {
+                String keyColumn = keyColumns.get(k);
+                String raw = values[keyColumnIndexes[k]].trim();
+                if (raw.isBlank()) {
+                    missingKey = true;
+                    missingKeyCounts.put(keyColumn, missingKeyCounts.getOrDefault(keyColumn, 0) + 1);
+                } else if (!missingKey) {
+                    appendKeyPart(keyBuilder, k, normalizeKeyValue(raw, keyNormalize));
+                }
+            }
+            if (missingKey) {
+                invalid++;
+                invalidRows.add(rowNumber);
+                return null;
+            }
+            return keyBuilder.toString();
+        }
+
+        /**
+         * Appends one part of a multi-column key. Parts are joined with {@code ||}, and a {@code |} or {@code \}
+         * inside a part is escaped with {@code \}, so distinct part lists always give distinct keys (unescaped,
+         * {@code a||b} + {@code c} and {@code a} + {@code b||c} would collide). Single-column keys are the normalized
+         * value itself.
+         */
+        static void appendKeyPart(StringBuilder key, int index, String part) {
+            if (index > 0) {
+                key.append("||");
+            }
+            if (part.indexOf('|') < 0 && part.indexOf('\\') < 0) {
+                key.append(part);
+                return;
+            }
+            for (int i = 0; i < part.length(); i++) {
+                char c = part.charAt(i);
+                if (c == '|' || c == '\\') {
+                    key.append('\\');
+                }
+                key.append(c);
+            }
+        }
+
+        void duplicate(String key) {
+            duplicates++;
+            duplicateKeys.add(key);
+        }
+
+        /** Adds the counts of a later chunk of the same file, keeping first-seen order for missing keys. */
+        void absorb(RosterAccounting chunk) {
+            totalRows += chunk.totalRows;
+            invalid += chunk.invalid;
+            invalidRows.addAll(chunk.invalidRows);
+            chunk.missingKeyCounts.forEach((field, count) -> missingKeyCounts.merge(field, count, Integer::sum));
+            chunk.nonEmptyCounts.forEach((field, count) -> nonEmptyCounts.merge(field, count, Integer::sum));
+        }
+
+        Roster toRoster(RosterTable rows) {
+            return new Roster(header, rows, duplicates, invalid, duplicateKeys, invalidRows, missingKeyCounts, totalRows,
+                    nonEmptyCounts);
+        }
+    }
+
+    /**
+     * A roster file mapped read-only into memory ({@code --mmap}). Records are split by recording each field as an
+     * (offset, length) slice of the mapped bytes instead of building Strings; a value is decoded only when a report,
+     * export or key needs it. Record boundaries, quoting, the BOM and blank lines follow {@link CsvRecordReader}, and
+     * a field that contains a quote is flagged and decoded through {@link #parseCsvLine}. The file is mapped as one
+     * region, so it must be under 2 GB.
+     */
+    static final class MappedCsv {
+        static final int QUOTED = 1;
+        static final int NON_ASCII = 2;
+
+        private final ByteBuffer bytes;
+        private int position;
+        private int nextLineNumber = 1;
+        private int lineNumber;
+        private int lineStart;
+        private int lineEnd;
+        private boolean blank;
+
+        private MappedCsv(ByteBuffer bytes) {
+            this.bytes = bytes;
+            if (bytes.limit() >= 3 && bytes.get(0) == (byte) 0xef && bytes.get(1) == (byte) 0xbb
+                    && bytes.get(2) == (byte) 0xbf) {
+                position = 3;
+            }
+        }
+
+        static MappedCsv map(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException(path + " is too large for --mmap; use --partitions or --external-sort");
+                }
+                return new MappedCsv(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+        }
+
+        /** Advances to the next record, which spans several lines when a quoted field holds a line break. */
+        boolean nextLine() {
+            int limit = bytes.limit();
+            if (position >= limit) {
+                return false;
+            }
+            lineNumber = nextLineNumber;
+            boolean inQuotes = false;
+            boolean quoted = false;
+            blank = true;
+            int end = position;
+            while (end < limit) {
+                byte b = bytes.get(end);
+                if (b == '"') {
+                    inQuotes = !inQuotes;
+                    quoted = true;
+                } else if (b == '\n' || b == '\r') {
+                    if (!inQuotes) {
+                        break;
+                    }
+                    if (b == '\n' || end + 1 >= limit || bytes.get(end + 1) != '\n') {
+                        nextLineNumber++;
+                    }
+                } else if (!isTrimmed(b)) {
+                    blank = false;
+                }
+                end++;
+            }
+            blank &= !quoted;
+            lineStart = position;
+            lineEnd = end;
+            position = end;
+            if (position < limit) {
+                position += bytes.get(position) == '\r' && position + 1 < limit && bytes.get(position + 1) == '\n' ? 2 : 1;
+                nextLineNumber++;
+            }
+            return true;
+        }
+
+        /** Line the current record starts on; the header is line 1. */
+        int lineNumber() {
+            return lineNumber;
+        }
+
+        /** The current record's raw text. */
+        String line() {
+            return decode(lineStart, lineEnd - lineStart);
+        }
+
+        boolean blank() {
+            return blank;
+        }
+
+        /** Splits the current record into {@code slices}, padding missing fields and dropping extras. */
+        void split(long[] slices) {
+            int field = 0;
+            int fieldStart = lineStart;
+            int flags = 0;
+            boolean inQuotes = false;
+            for (int i = lineStart; i < lineEnd; i++) {
+                byte b = bytes.get(i);
+                if (b < 0) {
+                    flags |= NON_ASCII;
+                } else if (inQuotes) {
+                    if (b == '"') {
+                        if (i + 1 < lineEnd && bytes.get(i + 1) == '"') {
+                            i++;
+                        } else {
+                            inQuotes = false;
+                        }
+                    }
+                } else if (b == '"') {
+                    inQuotes = true;
+                    flags |= QUOTED;
+                } else if (b == ',') {
+                    if (field < slices.length) {
+                        slices[field] = slice(fieldStart, i - fieldStart, flags);
+                    }
+                    field++;
+                    fieldStart = i + 1;
+                    flags = 0;
+                }
+            }
+            if (field < slices.length) {
+                slices[field++] = slice(fieldStart, lineEnd - fieldStart, flags);
+            }
+            while (field < slices.length) {
+                slices[field++] = 0L;
+            }
+        }
+
+        String decode(long slice) {
+            String raw = decode(offset(slice), length(slice));
+            return (flags(slice) & QUOTED) == 0 ? raw : parseCsvLine(raw).get(0);
+        }
+
+        /** Same test as {@code !value.trim().isBlank()}, without decoding plain ASCII fields. */
+        boolean nonBlank(long slice) {
+            if (flags(slice) != 0) {
+                return !decode(slice).trim().isBlank();
+            }
+            int end = offset(slice) + length(slice);
+            for (int i = offset(slice); i < end; i++) {
+                if (!isTrimmed(bytes.get(i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        byte byteAt(int index) {
+            return bytes.get(index);
+        }
+
+        /**
+         * Whether two unquoted slices hold equal values, optionally after {@link String#trim()}. UTF-8 keeps
+         * multi-byte characters above 0x7f, so byte equality is value equality and trimming never splits one.
+         */
+        static boolean sameBytes(MappedCsv left, long leftSlice, MappedCsv right, long rightSlice, boolean trim) {
+            int leftStart = offset(leftSlice);
+            int leftEnd = leftStart + length(leftSlice);
+            int rightStart = offset(rightSlice);
+            int rightEnd = rightStart + length(rightSlice);
+            if (trim) {
+                while (leftStart < leftEnd && isTrimmed(left.bytes.get(leftStart))) {
+                    leftStart++;
+                }
+                while (leftEnd > leftStart && isTrimmed(left.bytes.get(leftEnd - 1))) {
+                    leftEnd--;
+                }
+                while (rightStart < rightEnd && isTrimmed(right.bytes.get(rightStart))) {
+                    rightStart++;
+                }
+                while (rightEnd > rightStart && isTrimmed(right.bytes.get(rightEnd - 1))) {
+                    rightEnd--;
+                }
+            }
+            if (leftEnd - leftStart != rightEnd - rightStart) {
+                return false;
+            }
+            for (int i = 0; i < leftEnd - leftStart; i++) {
+                if (left.bytes.get(leftStart + i) != right.bytes.get(rightStart + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        static boolean isTrimmed(byte b) {
+            return b >= 0 && b <= ' ';
+        }
+
+        static long slice(int offset, int length, int flags) {
+            return ((long) offset << 32) | ((long) length << 2) | flags;
+        }
+
+        static int offset(long slice) {
+            return (int) (slice >>> 32);
+        }
+
+        static int length(long slice) {
+            return (int) (slice & 0xffffffffL) >>> 2;
+        }
+
+        static int flags(long slice) {
+            return (int) slice & 3;
+        }
+
+        private String decode(int offset, int length) {
+            if (length == 0) {
+                return "";
+            }
+            byte[] raw = new byte[length];
+            bytes.get(offset, raw);
+            return new String(raw, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Binary image of a loaded {@link Roster}: header, load statistics, keys in ordinal order, row values and
+     * fingerprints. {@code --snapshot-out} writes one for the current roster so the next run can pass it as
+     * {@code --previous} and skip parsing that CSV. Besides the format version, the file records the key options it
+     * was built with and the size and CRC-32C of its source CSV; if that CSV still exists and no longer matches,
+     * the snapshot is rejected as stale.
+     */
+    static final class RosterSnapshot {
+        static final int MAGIC = 0x52535350;
+        /** Version 2: multi-column keys escape {@code |} and {@code \} inside parts. */
+        static final int FORMAT_VERSION = 2;
+
+        static boolean isSnapshot(Path path) throws IOException {
+            if (!Files.isRegularFile(path) || Files.size(path) < Integer.BYTES) {
+                return false;
+            }
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+                return in.readInt() == MAGIC;
+            }
+        }
+
+        static void write(Path output, Path source, Roster roster, RosterLoadOptions options) throws IOException {
+            Path temp = output.resolveSibling(output.getFileName() + ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(temp), READ_BUFFER_SIZE))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(FORMAT_VERSION);
+                    writeString(out, source.toAbsolutePath().toString());
+                    out.writeLong(Files.size(source));
+                    out.writeLong(checksum(source));
+                    writeStrings(out, options.keyColumns());
+                    writeString(out, options.keyNormalize());
+
+                    RosterTable rows = roster.rows();
+                    RowFingerprinter fingerprinter = rows.fingerprinter();
+                    out.writeBoolean(fingerprinter != null);
+                    if (fingerprinter != null) {
+                        writeStrings(out, fingerprinter.fields());
+                        writeString(out, fingerprinter.valueNormalize());
+                    }
+
+                    writeStrings(out, roster.header());
+                    out.writeInt(roster.totalRows());
+                    out.writeInt(roster.duplicates());
+                    out.writeInt(roster.invalid());
+                    writeStrings(out, roster.duplicateKeys());
+                    out.writeInt(roster.invalidRows().size());
+                    for (int row : roster.invalidRows()) {
+                        out.writeInt(row);
+                    }
+                    writeCounts(out, roster.missingKeyCounts());
+                    writeCounts(out, roster.nonEmptyCounts());
+
+                    int width = roster.header().size();
+                    out.writeInt(rows.size());
+                    for (int ordinal = 0; ordinal < rows.size(); ordinal++) {
+                        writeString(out, rows.key(ordinal));
+                        for (int c = 0; c < width; c++) {
+                            writeString(out, rows.value(ordinal, c));
+                        }
+                        if (fingerprinter != null) {
+                            out.writeLong(rows.fingerprintHigh(ordinal));
+                            out.writeLong(rows.fingerprintLow(ordinal));
+                        }
+                    }
+                    out.writeInt(MAGIC);
+                }
+                Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+
+        static Roster read(Path path, RosterLoadOptions options) throws IOException {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(path), READ_BUFFER_SIZE))) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a roster snapshot: " + path);
+                }
+                int version = in.readInt();
+                if (version != FORMAT_VERSION) {
+                    throw new IOException("Unsupported snapshot format version " + version + " in: " + path);
+                }
+                Path source = Path.of(readString(in));
+                long sourceSize = in.readLong();
+                long sourceChecksum = in.readLong();
+                if (Files.isRegularFile(source)
+                        && (Files.size(source) != sourceSize || checksum(source) != sourceChecksum)) {
+                    throw new IOException("Snapshot " + path + " is stale: " + source + " changed after it was written");
+                }
+                List<String> keyColumns = readStrings(in);
+                String keyNormalize = readString(in);
+                if (!keyColumns.equals(options.keyColumns()) || !keyNormalize.equals(options.keyNormalize())) {
+                    throw new IOException("Snapshot " + path + " was keyed by " + String.join(",", keyColumns)
+                            + " with --key-normalize " + keyNormalize + "; use the same key options or pass the CSV");
+                }
+
+                boolean fingerprinted = in.readBoolean();
+                List<String> fingerprintFields = fingerprinted ? readStrings(in) : List.of();
+                String fingerprintNormalize = fingerprinted ? readString(in) : "";
+
+                List<String> header = readStrings(in);
+                int totalRows = in.readInt();
+                int duplicates = in.readInt();
+                int invalid = in.readInt();
+                List<String> duplicateKeys = readStrings(in);
+                int invalidCount = in.readInt();
+                List<Integer> invalidRows = new ArrayList<>(invalidCount);
+                for (int i = 0; i < invalidCount; i++) {
+                    invalidRows.add(in.readInt());
+                }
+                Map<String, Integer> missingKeyCounts = readCounts(in);
+                Map<String, Integer> nonEmptyCounts = readCounts(in);
+
+                RosterTable rows = new RosterTable(header, options.dictionaries(), options.fingerprints());
+                boolean reuseFingerprints = fingerprinted
+                        && RowFingerprinter.covers(rows.fingerprinter(), fingerprintFields, fingerprintNormalize);
+                int size = in.readInt();
+                for (int ordinal = 0; ordinal < size; ordinal++) {
+                    String key = readString(in);
+                    String[] values = new String[header.size()];
+                    for (int c = 0; c < values.length; c++) {
+                        values[c] = readString(in);
+                    }
+                    if (fingerprinted) {
+                        long high = in.readLong();
+                        long low = in.readLong();
+                        if (reuseFingerprints) {
+                            rows.add(key, values, high, low);
+                            continue;
+                        }
+                    }
+                    rows.add(key, values);
+                }
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Snapshot is corrupt: " + path);
+                }
+                return new Roster(header, rows, duplicates, invalid, duplicateKeys, invalidRows, missingKeyCounts,
+                        totalRows, nonEmptyCounts);
+            } catch (EOFException e) {
+                throw new IOException("Snapshot is truncated: " + path);
+            }
+        }
+
+        static long checksum(Path path) throws IOException {
+            CRC32C crc = new CRC32C();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                while (channel.read(buffer) >= 0) {
+                    buffer.flip();
+                    crc.update(buffer);
+                    buffer.clear();
+                }
+            }
+            return crc.getValue();
+        }
+
+        static void writeString(DataOutputStream out, String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeLength(out, bytes.length);
+            out.write(bytes);
+        }
+
+        static String readString(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[readLength(in)];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /** Unsigned LEB128, so the short values typical of rosters cost one length byte. */
+        static void writeLength(DataOutputStream out, int length) throws IOException {
+            while ((length & ~0x7f) != 0) {
+                out.writeByte((length & 0x7f) | 0x80);
+                length >>>= 7;
+            }
+            out.writeByte(length);
+        }
+
+        static int readLength(DataInputStream in) throws IOException {
+            int length = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = in.readUnsignedByte();
+                length |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return length;
+                }
+            }
+            throw new IOException("Encoded string length is corrupt");
+        }
+
+        private static void writeStrings(DataOutputStream out, List<String> values) throws IOException {
+            out.writeInt(values.size());
+            for (String value : values) {
+                writeString(out, value);
+            }
+        }
+
+        private static List<String> readStrings(DataInputStream in) throws IOException {
+            int count = in.readInt();
+            List<String> values = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                values.add(readString(in));
+            }
+            return values;
+        }
+
+        private static void writeCounts(DataOutputStream out, Map<String, Integer> counts) throws IOException {
+            out.writeInt(counts.size());
+            for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+        }
+
+        private static Map<String, Integer> readCounts(DataInputStream in) throws IOException {
+            int count = in.readInt();
+            Map<String, Integer> counts = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                counts.put(readString(in), in.readInt());
+            }
+            return counts;
+        }
+    }
+
+    /**
+     * Column positions for the given fields, using the last header position when a name repeats (the same
+     * position {@link RosterTable#columnIndex} resolves). Missing fields map to -1.
+     */
+    static int[] columnIndexes(List<String> header, List<String> fields) {
+        int[] indexes = new int[fields.size()];
+        for (int i = 0; i < fields.size(); i++) {
+            indexes[i] = header.lastIndexOf(fields.get(i));
+        }
+        return indexes;
+    }
+
+    static int compareKeys(String left, String right) {
+        return left.compareTo(right);
+    }
+
+    /**
+     * Streaming RFC 4180 record reader. A single pass over a buffered, UTF-8 decoded stream drives a small state
+     * machine, so quoted fields may hold commas, doubled quotes and CR/LF line breaks, records may end in LF, CRLF
+     * or CR, and a leading UTF-8 BOM is dropped. Values are kept exactly as written. As in {@link #parseCsvLine}, a
+     * quote toggles quoting wherever it appears. Field text is collected in one reused builder and records are
+     * exposed through reused storage, so nothing beyond the field Strings is allocated per record. A record that is
+     * an empty or whitespace-only line counts as blank, and {@link #lineNumber()} is the line a record starts on.
+     */
+    static final class CsvRecordReader implements Closeable {
+        private final Reader in;
+        private final char[] buffer = new char[READ_BUFFER_SIZE];
+        private final StringBuilder field = new StringBuilder();
+        private String[] fields = new String[16];
+        private int size;
+        private int position;
+        private int limit;
+        private boolean started;
+        private int nextLineNumber = 1;
+        private int lineNumber;
+        private boolean blank;
+
+        CsvRecordReader(Reader in) {
+            this.in = in;
+        }
+
+        /** A reader that starts mid-file at {@code firstLineNumber}, so no BOM is expected. */
+        CsvRecordReader(Reader in, int firstLineNumber) {
+            this.in = in;
+            this.started = true;
+            this.nextLineNumber = firstLineNumber;
+        }
+
+        /** Opens a CSV file, decompressing it on the fly when {@link Compression#isGzip} says it is gzip. */
+        static CsvRecordReader open(Path path) throws IOException {
+            if (Compression.isGzip(path)) {
+                return new CsvRecordReader(new InputStreamReader(Compression.openInput(path),
+                        StandardCharsets.UTF_8.newDecoder()));
+            }
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            return new CsvRecordReader(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1));
+        }
+
+        /** Reads the header record, failing on an empty file. */
+        List<String> header(Path path) throws IOException {
+            if (!next()) {
+                throw new IOException("CSV is empty: " + path);
+            }
+            return new ArrayList<>(Arrays.asList(fields).subList(0, size));
+        }
+
+        boolean next() throws IOException {
+            int c = read();
+            if (!started) {
+                started = true;
+                if (c == '\uFEFF') {
+                    c = read();
+                }
+            }
+            if (c < 0) {
+                return false;
+            }
+            lineNumber = nextLineNumber;
+            size = 0;
+            field.setLength(0);
+            boolean inQuotes = false;
+            boolean quoted = false;
+            while (c >= 0) {
+                if (inQuotes) {
+                    if (c == '"') {
+                        if (peek() == '"') {
+                            position++;
+                            field.append('"');
+                        } else {
+                            inQuotes = false;
+                        }
+                    } else {
+                        if (c == '\n' || (c == '\r' && peek() != '\n')) {
+                            nextLineNumber++;
+                        }
+                        field.append((char) c);
+                    }
+                } else if (c == '"') {
+                    inQuotes = true;
+                    quoted = true;
+                } else if (c == ',') {
+                    endField();
+                } else if (c == '\n' || c == '\r') {
+                    if (c == '\r' && peek() == '\n') {
+                        position++;
+                    }
+                    nextLineNumber++;
+                    break;
+                } else {
+                    field.append((char) c);
+                }
+                c = read();
+            }
+            endField();
+            blank = size == 1 && !quoted && fields[0].trim().isEmpty();
+            return true;
+        }
+
+        /** Line the current record starts on; the header is line 1. */
+        int lineNumber() {
+            return lineNumber;
+        }
+
+        boolean blank() {
+            return blank;
+        }
+
+        int size() {
+            return size;
+        }
+
+        String get(int index) {
+            return fields[index];
+        }
+
+        /** The current record padded with empty values or cut to {@code width} fields. */
+        String[] values(int width) {
+            return values(0, width);
+        }
+
+        String[] values(int from, int width) {
+            String[] values = new String[width];
+            for (int j = 0; j < width; j++) {
+                values[j] = from + j < size ? fields[from + j] : "";
+            }
+            return values;
+        }
+
+        List<String> toList() {
+            return new ArrayList<>(Arrays.asList(fields).subList(0, size));
+        }
+
+        private void endField() {
+            if (size == fields.length) {
+                fields = Arrays.copyOf(fields, size * 2);
+            }
+            fields[size++] = field.toString();
+            field.setLength(0);
+        }
+
+        private int read() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return buffer[position++];
+        }
+
+        private int peek() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return buffer[position];
+        }
+
+        private boolean fill() throws IOException {
+            int read = in.read(buffer, 0, buffer.length);
+            position = 0;
+            limit = Math.max(read, 0);
+            return read > 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inQuotes = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (inQuotes) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        current.append('"');
+                        i++;
+                    } else {
+                        inQuotes = false;
+                    }
+                } else {
+                    current.append(c);
+                }
+            } else {
+                if (c == '"') {
+                    inQuotes = true;
+                } else if (c == ',') {
+                    fields.add(current.toString());
+                    current.setLength(0);
+                } else {
+                    current.append(c);
+                }
+            }
+        }
+        fields.add(current.toString());
+        return fields;
+    }
+
+    private static Report diff(Roster previous, Roster current, List<String> keyColumns, Set<String> ignoredFields,
+                               String keyNormalize, String valueNormalize, boolean summaryOnly, int detailLimit,
+                               int threads) {
+        RosterTable prevRows = previous.rows;
+        RosterTable curRows = current.rows;
+
+        ColumnPlan columns = ColumnPlan.of(previous.header, current.header, ignoredFields);
+        RowComparer comparer = new RowComparer(prevRows, curRows, columns.comparableFields(), valueNormalize);
+        DiffChunk shared;
+        if (threads <= 1) {
+            shared = comparer.compareRange(0, prevRows.size());
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                int chunkSize = Math.max(DiffTask.MIN_CHUNK_SIZE, prevRows.size() / (threads * 4) + 1);
+                shared = pool.invoke(new DiffTask(comparer, 0, prevRows.size(), chunkSize));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        List<String> added = comparer.unmatchedCurrent();
+        List<String> removed = shared.removed;
+        List<Update> updates = shared.updates;
+        int unchanged = shared.unchangedKeys.size();
+        Map<String, Integer> fieldChangeCounts = shared.fieldChangeCounts;
+
+        DiffTotals totals = new DiffTotals(prevRows.size(), curRows.size(), added.size(), removed.size(), updates.size(),
+                unchanged);
+        return new Report(previous, current, keyColumns, keyNormalize, valueNormalize, totals, added, removed, updates,
+                fieldChangeCounts, ignoredFields, columns, shared.unchangedKeys, summaryOnly, detailLimit);
+    }
+
+    /**
+     * Grace-hash reconcile: both rosters are split into partition files by composite-key hash, each partition pair is
+     * reconciled in memory with {@link #diff}, and the partial reports are merged. Partitions are independent, so up
+     * to {@code threads} of them run at once; peak memory is roughly one partition pair per worker. Detail lists
+     * keep the first {@code --max-detail} keys in key order, and exports are replayed in key order from per-partition
+     * spools so they match the in-memory bundle.
+     */
+    static Report partitionedDiff(Path previousPath, Path currentPath, RosterLoadOptions options,
+                                  Set<String> ignoredFields, String valueNormalize, boolean summaryOnly,
+                                  int detailLimit, int partitions, int threads, String partitionDir,
+                                  DiffListener listener) throws IOException {
+        try (HashPartitioner partitioner = HashPartitioner.create(partitionDir, partitions);
+             PartitionedRoster previous = partitioner.split(previousPath, options);
+             PartitionedRoster current = partitioner.split(currentPath, options)) {
+            ColumnPlan columns = ColumnPlan.of(previous.header(), current.header(), ignoredFields);
+            boolean spooling = listener != DiffListener.NONE;
+            List<PartitionResult> results = new ArrayList<>();
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, partitions));
+            try {
+                List<Future<PartitionResult>> futures = new ArrayList<>();
+                for (int p = 0; p < partitions; p++) {
+                    int partition = p;
+                    futures.add(executor.submit(() -> reconcilePartition(partition, previous, current, options,
+                            ignoredFields, valueNormalize, detailLimit, spooling ? partitioner.spoolFile(partition) : null)));
+                }
+                for (Future<PartitionResult> future : futures) {
+                    results.add(await(future));
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+
+            try {
+                int detailCap = detailLimit > 0 ? detailLimit : Integer.MAX_VALUE;
+                int totalPrevious = 0;
+                int totalCurrent = 0;
+                int addedCount = 0;
+                int removedCount = 0;
+                int updatedCount = 0;
+                int unchanged = 0;
+                List<String> added = new ArrayList<>();
+                List<String> removed = new ArrayList<>();
+                List<Update> updates = new ArrayList<>();
+                Map<String, Integer> fieldChangeCounts = new LinkedHashMap<>();
+                List<DuplicateRow> previousDuplicates = new ArrayList<>();
+                List<DuplicateRow> currentDuplicates = new ArrayList<>();
+                for (PartitionResult result : results) {
+                    DiffTotals totals = result.totals();
+                    totalPrevious += totals.previous();
+                    totalCurrent += totals.current();
+                    addedCount += totals.added();
+                    removedCount += totals.removed();
+                    updatedCount += totals.updated();
+                    unchanged += totals.unchanged();
+                    added.addAll(result.added());
+                    removed.addAll(result.removed());
+                    updates.addAll(result.updates());
+                    for (Map.Entry<String, Integer> entry : result.fieldChangeCounts().entrySet()) {
+                        fieldChangeCounts.merge(entry.getKey(), entry.getValue(), Integer::sum);
+                    }
+                    previousDuplicates.addAll(result.previousDuplicates());
+                    currentDuplicates.addAll(result.currentDuplicates());
+                }
+                added.sort(Main::compareKeys);
+                removed.sort(Main::compareKeys);
+                updates.sort((a, b) -> compareKeys(a.key, b.key));
+
+                if (spooling) {
+                    List<Path> spools = new ArrayList<>();
+                    for (PartitionResult result : results) {
+                        spools.add(result.spool());
+                    }
+                    SpoolFile.replay(spools, previous.header(), current.header(), columns.combinedHeaderList(), listener);
+                }
+
+                DiffTotals totals = new DiffTotals(totalPrevious, totalCurrent, addedCount, removedCount, updatedCount,
+                        unchanged);
+                return new Report(previous.toRoster(previousDuplicates), current.toRoster(currentDuplicates),
+                        options.keyColumns(), options.keyNormalize(), valueNormalize, totals,
+                        new LinkedHashSet<>(added.subList(0, Math.min(added.size(), detailCap))),
+                        new LinkedHashSet<>(removed.subList(0, Math.min(removed.size(), detailCap))),
+                        new ArrayList<>(updates.subList(0, Math.min(updates.size(), detailCap))), fieldChangeCounts,
+                        ignoredFields, columns, Set.of(), summaryOnly, detailLimit);
+            } finally {
+                for (PartitionResult result : results) {
+                    if (result.spool() != null) {
+                        Files.deleteIfExists(result.spool());
+                    }
+                }
+            }
+        }
+    }
+
+    private static PartitionResult reconcilePartition(int partition, PartitionedRoster previous,
+                                                      PartitionedRoster current, RosterLoadOptions options,
+                                                      Set<String> ignoredFields, String valueNormalize,
+                                                      int detailLimit, Path spool) throws IOException {
+        DictionaryEncoding dictionaries = options.dictionaries().fresh();
+        PartitionLoad prev = previous.load(partition, dictionaries, options.fingerprints());
+        PartitionLoad cur = current.load(partition, dictionaries, options.fingerprints());
+        Report report = diff(prev.roster(), cur.roster(), options.keyColumns(), ignoredFields, options.keyNormalize(),
+                valueNormalize, false, detailLimit, 1);
+        if (spool != null) {
+            try (SpoolFile.Writer writer = new SpoolFile.Writer(spool)) {
+                report.replay(writer);
+            }
+        }
+        int detailCap = detailLimit > 0 ? detailLimit : Integer.MAX_VALUE;
+        List<String> added = report.classification.keys(KeyClassification.ADDED, detailCap);
+        List<String> removed = report.classification.keys(KeyClassification.REMOVED, detailCap);
+        return new PartitionResult(report.totals, added.subList(0, Math.min(added.size(), detailCap)),
+                removed.subList(0, Math.min(removed.size(), detailCap)),
+                report.updates.subList(0, Math.min(report.updates.size(), detailCap)), report.fieldChangeCounts,
+                prev.duplicates(), cur.duplicates(), spool);
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reconciling", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    record PartitionResult(DiffTotals totals, List<String> added, List<String> removed, List<Update> updates,
+                           Map<String, Integer> fieldChangeCounts, List<DuplicateRow> previousDuplicates,
+                           List<DuplicateRow> currentDuplicates, Path spool) {}
+
+    record DuplicateRow(int rowNumber, String key) {}
+
+    record PartitionLoad(Roster roster, List<DuplicateRow> duplicates) {}
+
+    /**
+     * Splits rosters into partition files by composite-key hash. Rows are counted against the source file while it
+     * is split, and each partition line keeps its source row number so duplicates can be reported in file order.
+     */
+    static final class HashPartitioner implements Closeable {
+        private final Path dir;
+        private final boolean ownsDir;
+        private final int partitions;
+
+        private HashPartitioner(Path dir, boolean ownsDir, int partitions) {
+            this.dir = dir;
+            this.ownsDir = ownsDir;
+            this.partitions = partitions;
+        }
+
+        static HashPartitioner create(String partitionDir, int partitions) throws IOException {
+            if (partitionDir == null || partitionDir.isBlank()) {
+                return new HashPartitioner(Files.createTempDirectory("roster-partitions-"), true, partitions);
+            }
+            return new HashPartitioner(Files.createDirectories(Path.of(partitionDir)), false, partitions);
+        }
+
+        PartitionedRoster split(Path input, RosterLoadOptions options) throws IOException {
+            List<Path> files = new ArrayList<>();
+            BufferedWriter[] writers = new BufferedWriter[partitions];
+            try (CsvRecordReader reader = CsvRecordReader.open(input)) {
+                List<String> header = reader.header(input);
+                RosterAccounting accounting = new RosterAccounting(input, header, options);
+                for (int p = 0; p < partitions; p++) {
+                    Path file = Files.createTempFile(dir, "roster-part-" + p + "-", ".csv");
+                    files.add(file);
+                    writers[p] = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+                }
+
+                List<String> record = new ArrayList<>(header.size() + 1);
+                while (reader.next()) {
+                    if (reader.blank()) {
+                        continue;
+                    }
+                    String[] values = accounting.values(reader);
+                    String key = accounting.key(values, reader.lineNumber());
+                    if (key == null) {
+                        continue;
+                    }
+                    record.clear();
+                    record.add(Integer.toString(reader.lineNumber()));
+                    record.addAll(Arrays.asList(values));
+                    BufferedWriter writer = writers[partitionOf(key)];
+                    writer.write(Report.joinCsvLine(record));
+                    writer.newLine();
+                }
+                closeAll(writers);
+                return new PartitionedRoster(header, files, accounting);
+            } catch (IOException | RuntimeException e) {
+                closeAll(writers);
+                for (Path file : files) {
+                    Files.deleteIfExists(file);
+                }
+                throw e;
+            }
+        }
+
+        Path spoolFile(int partition) throws IOException {
+            return Files.createTempFile(dir, "roster-spool-" + partition + "-", ".csv");
+        }
+
+        private int partitionOf(String key) {
+            int hash = key.hashCode();
+            hash ^= hash >>> 16;
+            hash *= 0x85ebca6b;
+            hash ^= hash >>> 13;
+            return Math.floorMod(hash, partitions);
+        }
+
+        private static void closeAll(BufferedWriter[] writers) throws IOException {
+            IOException failure = null;
+            for (BufferedWriter writer : writers) {
+                if (writer == null) {
+                    continue;
+                }
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (ownsDir) {
+                Files.deleteIfExists(dir);
+            }
+        }
+    }
+
+    /** Partition files for one roster plus the accounting gathered while splitting it. */
+    record PartitionedRoster(List<String> header, List<Path> files, RosterAccounting accounting) implements Closeable {
+        PartitionLoad load(int partition, DictionaryEncoding dictionaries, FingerprintSpec fingerprints)
+                throws IOException {
+            RosterTable rows = new RosterTable(header, dictionaries, fingerprints);
+            List<DuplicateRow> duplicates = new ArrayList<>();
+            List<String> duplicateKeys = new ArrayList<>();
+            try (CsvRecordReader reader = CsvRecordReader.open(files.get(partition))) {
+                while (reader.next()) {
+                    int rowNumber = Integer.parseInt(reader.get(0));
+                    String[] values = reader.values(1, header.size());
+                    String key = accounting.compositeKey(values);
+                    if (rows.containsKey(key)) {
+                        duplicates.add(new DuplicateRow(rowNumber, key));
+                        duplicateKeys.add(key);
+                        continue;
+                    }
+                    rows.add(key, values);
+                }
+            }
+            Roster roster = new Roster(header, rows, duplicates.size(), 0, duplicateKeys, List.of(), Map.of(), 0,
+                    Map.of());
+            return new PartitionLoad(roster, duplicates);
+        }
+
+        /** Roster statistics for the merged report, with duplicates listed in source-file order. */
+        Roster toRoster(List<DuplicateRow> duplicates) {
+            duplicates.sort(Comparator.comparingInt(DuplicateRow::rowNumber));
+            for (DuplicateRow duplicate : duplicates) {
+                accounting.duplicate(duplicate.key());
+            }
+            return accounting.toRoster(new RosterTable(header));
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Key-ordered change events spooled to disk as CSV lines, so partitions reconciled independently can be replayed
+     * into a {@link DiffListener} in global key order. Each line starts with the event type and key; updates carry
+     * their change count and changes, then the previous and current rows.
+     */
+    static final class SpoolFile {
+        private SpoolFile() {
+        }
+
+        static void replay(List<Path> spools, List<String> previousHeader, List<String> currentHeader,
+                           List<String> combinedHeader, DiffListener listener) throws IOException {
+            List<Reader> readers = new ArrayList<>();
+            try {
+                PriorityQueue<Reader> queue = new PriorityQueue<>((a, b) -> compareKeys(a.event.get(1), b.event.get(1)));
+                for (Path spool : spools) {
+                    Reader reader = new Reader(CsvRecordReader.open(spool));
+                    readers.add(reader);
+                    if (reader.advance()) {
+                        queue.add(reader);
+                    }
+                }
+                listener.begin(previousHeader, currentHeader, combinedHeader);
+                while (!queue.isEmpty()) {
+                    Reader reader = queue.poll();
+                    dispatch(reader.event, previousHeader.size(), currentHeader.size(), listener);
+                    if (reader.advance()) {
+                        queue.add(reader);
+                    }
+                }
+                listener.finish();
+            } finally {
+                for (Reader reader : readers) {
+                    reader.reader.close();
+                }
+            }
+        }
+
+        private static void dispatch(List<String> event, int previousWidth, int currentWidth, DiffListener listener)
+                throws IOException {
+            String key = event.get(1);
+            switch (event.get(0)) {
+                case "A" -> listener.added(key, slice(event, 2, currentWidth));
+                case "R" -> listener.removed(key, slice(event, 2, previousWidth));
+                case "C" -> listener.unchanged(key, slice(event, 2, currentWidth));
+                case "U" -> {
+                    int changeCount = Integer.parseInt(event.get(2));
+                    Map<String, Change> changes = new LinkedHashMap<>();
+                    int offset = 3;
+                    for (int i = 0; i < changeCount; i++) {
+                        changes.put(event.get(offset), new Change(event.get(offset + 1), event.get(offset + 2)));
+                        offset += 3;
+                    }
+                    listener.updated(new Update(key, changes), slice(event, offset, previousWidth),
+                            slice(event, offset + previousWidth, currentWidth));
+                }
+                default -> throw new IOException("Unknown spool event: " + event.get(0));
+            }
+        }
+
+        private static String[] slice(List<String> event, int from, int width) {
+            return event.subList(from, from + width).toArray(new String[0]);
+        }
+
+        static final class Writer implements DiffListener {
+            private final BufferedWriter writer;
+
+            Writer(Path spool) throws IOException {
+                this.writer = Files.newBufferedWriter(spool, StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public void added(String key, String[] currentValues) throws IOException {
+                write("A", key, List.of(), currentValues);
+            }
+
+            @Override
+            public void removed(String key, String[] previousValues) throws IOException {
+                write("R", key, List.of(), previousValues);
+            }
+
+            @Override
+            public void unchanged(String key, String[] currentValues) throws IOException {
+                write("C", key, List.of(), currentValues);
+            }
+
+            @Override
+            public void updated(Update update, String[] previousValues, String[] currentValues) throws IOException {
+                List<String> fields = new ArrayList<>();
+                fields.add(Integer.toString(update.changes.size()));
+                for (Map.Entry<String, Change> entry : update.changes.entrySet()) {
+                    fields.add(entry.getKey());
+                    fields.add(entry.getValue().before);
+                    fields.add(entry.getValue().after);
+                }
+                fields.addAll(Arrays.asList(previousValues));
+                write("U", update.key, fields, currentValues);
+            }
+
+            private void write(String type, String key, List<String> fields, String[] values) throws IOException {
+                List<String> line = new ArrayList<>(2 + fields.size() + values.length);
+                line.add(type);
+                line.add(key);
+                line.addAll(fields);
+                line.addAll(Arrays.asList(values));
+                writer.write(Report.joinCsvLine(line));
+                writer.newLine();
+            }
+
+            @Override
+            public void close() throws IOException {
+                writer.close();
+            }
+        }
+
+        private static final class Reader {
+            private final CsvRecordReader reader;
+            private List<String> event;
+
+            private Reader(CsvRecordReader reader) {
+                this.reader = reader;
+            }
+
+            private boolean advance() throws IOException {
+                event = reader.next() ? reader.toList() : null;
+                return event != null;
+            }
+        }
+    }
+
+    /**
+     * Sort-merge reconcile for inputs already ordered by composite key (see {@link #compareKeys}). Both files are
+     * walked in lockstep and each key is classified in a single pass, so memory stays flat regardless of roster
+     * size: only the first {@code --max-detail} entries of each list are kept for the report, and exports are
+     * streamed as keys are classified.
+     */
+    static Report mergeDiff(Path previousPath, Path currentPath, RosterLoadOptions options, Set<String> ignoredFields,
+                            String valueNormalize, boolean summaryOnly, int detailLimit, DiffListener listener)
+            throws IOException {
+        try (RosterCursor prev = RosterCursor.open(previousPath, options);
+             RosterCursor cur = RosterCursor.open(currentPath, options)) {
+            return mergeDiff(prev, cur, options, ignoredFields, valueNormalize, summaryOnly, detailLimit, listener);
+        }
+    }
+
+    static Report mergeDiff(RosterCursor prev, RosterCursor cur, RosterLoadOptions options, Set<String> ignoredFields,
+                            String valueNormalize, boolean summaryOnly, int detailLimit, DiffListener listener)
+            throws IOException {
+        ColumnPlan columns = ColumnPlan.of(prev.header(), cur.header(), ignoredFields);
+        RowComparer comparer = new RowComparer(prev.header(), cur.header(), columns.comparableFields(),
+                valueNormalize);
+        int detailCap = detailLimit > 0 ? detailLimit : Integer.MAX_VALUE;
+        Set<String> added = new LinkedHashSet<>();
+        Set<String> removed = new LinkedHashSet<>();
+        List<Update> updates = new ArrayList<>();
+        Map<String, Integer> fieldChangeCounts = new LinkedHashMap<>();
+        int addedCount = 0;
+        int removedCount = 0;
+        int updatedCount = 0;
+        int unchanged = 0;
+
+        listener.begin(prev.header(), cur.header(), columns.combinedHeaderList());
+        boolean hasPrev = prev.next();
+        boolean hasCur = cur.next();
+        while (hasPrev || hasCur) {
+            int cmp = !hasPrev ? 1 : !hasCur ? -1 : compareKeys(prev.key(), cur.key());
+            if (cmp < 0) {
+                removedCount++;
+                if (removed.size() < detailCap) {
+                    removed.add(prev.key());
+                }
+                listener.removed(prev.key(), prev.values());
+                hasPrev = prev.next();
+            } else if (cmp > 0) {
+                addedCount++;
+                if (added.size() < detailCap) {
+                    added.add(cur.key());
+                }
+                listener.added(cur.key(), cur.values());
+                hasCur = cur.next();
+            } else {
+                Map<String, Change> changes = comparer.compareValues(prev.values(), cur.values(), fieldChangeCounts);
+                if (changes.isEmpty()) {
+                    unchanged++;
+                    listener.unchanged(cur.key(), cur.values());
+                } else {
+                    updatedCount++;
+                    Update update = new Update(cur.key(), changes);
+                    if (updates.size() < detailCap) {
+                        updates.add(update);
+                    }
+                    listener.updated(update, prev.values(), cur.values());
+                }
+                hasPrev = prev.next();
+                hasCur = cur.next();
+            }
+        }
+        listener.finish();
+
+        Roster previous = prev.toRoster();
+        Roster current = cur.toRoster();
+        DiffTotals totals = new DiffTotals(prev.keyedRows(), cur.keyedRows(), addedCount, removedCount, updatedCount,
+                unchanged);
+        return new Report(previous, current, options.keyColumns(), options.keyNormalize(), valueNormalize, totals,
+                added, removed, updates, fieldChangeCounts, ignoredFields, columns, Set.of(), summaryOnly,
+                detailLimit);
+    }
+
+    /**
+     * Header-level comparison of two rosters: column additions/removals, the union of both headers, ignored fields
+     * that match neither header, and the fields compared row by row.
+     */
+    record ColumnPlan(Set<String> addedColumns, Set<String> removedColumns, List<String> combinedHeaderList,
+                      Set<String> unknownIgnored, List<String> comparableFields) {
+        static ColumnPlan of(List<String> previousHeader, List<String> currentHeader, Set<String> ignoredFields) {
+            Set<String> addedColumns = new HashSet<>(currentHeader);
+            addedColumns.removeAll(previousHeader);
+
+            Set<String> removedColumns = new HashSet<>(previousHeader);
+            removedColumns.removeAll(currentHeader);
+
+            Set<String> combinedHeaders = new HashSet<>(previousHeader);
+            combinedHeaders.addAll(currentHeader);
+            List<String> combinedHeaderList = new ArrayList<>(previousHeader);
+            for (String field : currentHeader) {
+                if (!combinedHeaderList.contains(field)) {
+                    combinedHeaderList.add(field);
+                }
+            }
+            Set<String> unknownIgnored = new HashSet<>();
+            for (String ignored : ignoredFields) {
+                if (!combinedHeaders.contains(ignored)) {
+                    unknownIgnored.add(ignored);
+                }
+            }
+
+            List<String> comparableFields = new ArrayList<>();
+            Set<String> currentHeaderSet = new HashSet<>(currentHeader);
+            for (String field : previousHeader) {
+                if (currentHeaderSet.contains(field) && !ignoredFields.contains(field)) {
+                    comparableFields.add(field);
+                }
+            }
+            return new ColumnPlan(addedColumns, removedColumns, combinedHeaderList, unknownIgnored, comparableFields);
+        }
+    }
+
+    record DiffTotals(int previous, int current, int added, int removed, int updated, int unchanged) {}
+
+    /**
+     * Receives each key as it is classified by a streaming reconcile, in key order.
+     */
+    interface DiffListener extends Closeable {
+        DiffListener NONE = new DiffListener() {};
+
+        default void begin(List<String> previousHeader, List<String> currentHeader, List<String> combinedHeader)
+                throws IOException {
+        }
+
+        default void added(String key, String[] currentValues) throws IOException {
+        }
+
+        default void removed(String key, String[] previousValues) throws IOException {
+        }
+
+        default void updated(Update update, String[] previousValues, String[] currentValues) throws IOException {
+        }
+
+        default void unchanged(String key, String[] currentValues) throws IOException {
+        }
+
+        default void finish() throws IOException {
+        }
+
+        @Override
+        default void close() throws IOException {
+        }
+
+        /** Fans each event out to every listener in order; returns {@link #NONE} when there is nothing to notify. */
+        static DiffListener combine(DiffListener... listeners) {
+            List<DiffListener> active = new ArrayList<>();
+            for (DiffListener listener : listeners) {
+                if (listener != NONE) {
+                    active.add(listener);
+                }
+            }
+            if (active.isEmpty()) {
+                return NONE;
+            }
+            if (active.size() == 1) {
+                return active.get(0);
+            }
+            return new DiffListener() {
+                @Override
+                public void begin(List<String> previousHeader, List<String> currentHeader, List<String> combinedHeader)
+                        throws IOException {
+                    for (DiffListener listener : active) {
+                        listener.begin(previousHeader, currentHeader, combinedHeader);
+                    }
+                }
+
+                @Override
+                public void added(String key, String[] currentValues) throws IOException {
+                    for (DiffListener listener : active) {
+                        listener.added(key, currentValues);
+                    }
+                }
+
+                @Override
+                public void removed(String key, String[] previousValues) throws IOException {
+                    for (DiffListener listener : active) {
+                        listener.removed(key, previousValues);
+                    }
+                }
+
+                @Override
+                public void updated(Update update, String[] previousValues, String[] currentValues)
+                        throws IOException {
+                    for (DiffListener listener : active) {
+                        listener.updated(update, previousValues, currentValues);
+                    }
+                }
+
+                @Override
+                public void unchanged(String key, String[] currentValues) throws IOException {
+                    for (DiffListener listener : active) {
+                        listener.unchanged(key, currentValues);
+                    }
+                }
+
+                @Override
+                public void finish() throws IOException {
+                    for (DiffListener listener : active) {
+                        listener.finish();
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+                    IOException failure = null;
+                    for (DiffListener listener : active) {
+                        try {
+                            listener.close();
+                        } catch (IOException e) {
+                            if (failure == null) {
+                                failure = e;
+                            }
+                        }
+                    }
+                    if (failure != null) {
+                        throw failure;
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Forward-only reader over a roster sorted by composite key. Applies the same row accounting as
+     * {@link #readRoster}; a repeated key is a duplicate (first row wins) and a key lower than its predecessor
+     * fails the run, since the merge would otherwise misclassify rows.
+     */
+    static final class RosterCursor implements Closeable {
+        private final Path path;
+        private final CsvRecordReader reader;
+        private final List<String> header;
+        private final RosterAccounting accounting;
+        private final boolean counting;
+        private final List<DuplicateRow> duplicates = new ArrayList<>();
+        private int keyedRows;
+        private String key;
+        private String[] values;
+
+        private RosterCursor(Path path, CsvRecordReader reader, List<String> header, RosterAccounting accounting,
+                             boolean counting) {
+            this.path = path;
+            this.reader = reader;
+            this.header = header;
+            this.accounting = accounting;
+            this.counting = counting;
+        }
+
+        static RosterCursor open(Path path, RosterLoadOptions options) throws IOException {
+            CsvRecordReader reader = CsvRecordReader.open(path);
+            try {
+                List<String> header = reader.header(path);
+                return new RosterCursor(path, reader, header, new RosterAccounting(path, header, options), true);
+            } catch (IOException e) {
+                reader.close();
+                throw e;
+            }
+        }
+
+        /** Cursor over {@link ExternalSorter} output, whose rows were already counted against the source file. */
+        static RosterCursor open(SortedRoster sorted) throws IOException {
+            CsvRecordReader reader = CsvRecordReader.open(sorted.file());
+            try {
+                reader.header(sorted.file());
+                return new RosterCursor(sorted.file(), reader, sorted.header(), sorted.accounting(), false);
+            } catch (IOException e) {
+                reader.close();
+                throw e;
+            }
+        }
+
+        List<String> header() {
+            return header;
+        }
+
+        String key() {
+            return key;
+        }
+
+        String[] values() {
+            return values;
+        }
+
+        int keyedRows() {
+            return keyedRows;
+        }
+
+        boolean next() throws IOException {
+            while (reader.next()) {
+                if (reader.blank()) {
+                    continue;
+                }
+                int rowNumber = counting ? reader.lineNumber() : Integer.parseInt(reader.get(0));
+                String[] rowValues = counting ? accounting.values(reader) : reader.values(1, accounting.width());
+                String rowKey = counting ? accounting.key(rowValues, rowNumber) : accounting.compositeKey(rowValues);
+                if (rowKey == null) {
+                    continue;
+                }
+                if (key != null) {
+                    int cmp = compareKeys(rowKey, key);
+                    if (cmp == 0) {
+                        duplicates.add(new DuplicateRow(rowNumber, rowKey));
+                        continue;
+                    }
+                    if (cmp < 0) {
+                        throw new IOException("Roster is not sorted by key at row " + rowNumber + " (\"" + rowKey
+                                + "\" after \"" + key + "\"): " + path);
+                    }
+                }
+                key = rowKey;
+                values = rowValues;
+                keyedRows++;
+                return true;
+            }
+            values = null;
+            return false;
+        }
+
+        /**
+         * Roster statistics for the report; rows are not retained. Duplicates are listed in source-file order, which
+         * for an externally sorted roster differs from the key order the cursor met them in.
+         */
+        Roster toRoster() {
+            duplicates.sort(Comparator.comparingInt(DuplicateRow::rowNumber));
+            for (DuplicateRow duplicate : duplicates) {
+                accounting.duplicate(duplicate.key());
+            }
+            duplicates.clear();
+            return accounting.toRoster(new RosterTable(header));
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /**
+     * Disk-spilling sort of a roster CSV by composite key, for rosters larger than the heap. Rows are buffered up to
+     * the memory budget, sorted, and spilled as runs to the temp directory; the runs are then k-way merged into one
+     * sorted CSV. Keys use {@link RosterAccounting} normalization and {@link #compareKeys} order, exactly as the
+     * merge reconcile matches them, and ties keep input order so the first row still wins for duplicates. Rows are
+     * counted while the source is read, so invalid row numbers refer to the source file and invalid rows are left
+     * out of the sorted output. Each sorted record leads with its source row number so duplicates can be reported
+     * in file order.
+     */
+    static final class ExternalSorter implements Closeable {
+        static final int DEFAULT_BUFFER_MB = 64;
+        static final int MAX_FAN_IN = 64;
+        private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+        private final Path tempDir;
+        private final boolean ownsTempDir;
+        private final long bufferBytes;
+
+        private ExternalSorter(Path tempDir, boolean ownsTempDir, long bufferBytes) {
+            this.tempDir = tempDir;
+            this.ownsTempDir = ownsTempDir;
+            this.bufferBytes = bufferBytes;
+        }
+
+        static ExternalSorter create(String sortDir, int bufferMb) throws IOException {
+            if (sortDir == null || sortDir.isBlank()) {
+                return new ExternalSorter(Files.createTempDirectory("roster-sort-"), true, bufferMb * 1024L * 1024L);
+            }
+            Path dir = Files.createDirectories(Path.of(sortDir));
+            return new ExternalSorter(dir, false, bufferMb * 1024L * 1024L);
+        }
+
+        SortedRoster sort(Path input, RosterLoadOptions options) throws IOException {
+            List<Path> runs = new ArrayList<>();
+            List<String> header;
+            RosterAccounting accounting;
+            try (CsvRecordReader reader = CsvRecordReader.open(input)) {
+                header = reader.header(input);
+                accounting = new RosterAccounting(input, header, options);
+
+                List<SortEntry> buffer = new ArrayList<>();
+                long buffered = 0;
+                while (reader.next()) {
+                    if (reader.blank()) {
+                        continue;
+                    }
+                    String[] values = accounting.values(reader);
+                    int rowNumber = reader.lineNumber();
+                    String key = accounting.key(values, rowNumber);
+                    if (key == null) {
+                        continue;
+                    }
+                    buffer.add(new SortEntry(key, rowNumber, values));
+                    buffered += 2L * key.length() + ENTRY_OVERHEAD_BYTES;
+                    for (String value : values) {
+                        buffered += 2L * value.length() + ENTRY_OVERHEAD_BYTES / 2;
+                    }
+                    if (buffered >= bufferBytes) {
+                        runs.add(spill(buffer));
+                        buffer.clear();
+                        buffered = 0;
+                    }
+                }
+                if (!buffer.isEmpty() || runs.isEmpty()) {
+                    runs.add(spill(buffer));
+                }
+            } catch (IOException e) {
+                deleteAll(runs);
+                throw e;
+            }
+
+            try {
+                while (runs.size() > MAX_FAN_IN) {
+                    List<Path> merged = new ArrayList<>();
+                    for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+                        List<Path> group = runs.subList(i, Math.min(runs.size(), i + MAX_FAN_IN));
+                        Path run = Files.createTempFile(tempDir, "roster-run-", ".tmp");
+                        try (BufferedWriter writer = Files.newBufferedWriter(run, StandardCharsets.UTF_8)) {
+                            merge(group, writer, true);
+                        }
+                        deleteAll(group);
+                        merged.add(run);
+                    }
+                    runs = merged;
+                }
+                Path output = Files.createTempFile(tempDir, "roster-sorted-", ".csv");
+                try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+                    writer.write(Report.joinCsvLine(header));
+                    writer.newLine();
+                    merge(runs, writer, false);
+                }
+                return new SortedRoster(output, header, accounting);
+            } finally {
+                deleteAll(runs);
+            }
+        }
+
+        private Path spill(List<SortEntry> buffer) throws IOException {
+            buffer.sort((a, b) -> compareKeys(a.key(), b.key()));
+            Path run = Files.createTempFile(tempDir, "roster-run-", ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(run, StandardCharsets.UTF_8)) {
+                for (SortEntry entry : buffer) {
+                    writeRecord(writer, entry.key(), entry.rowNumber(), entry.values(), true);
+                }
+            }
+            return run;
+        }
+
+        /** K-way merge of runs; equal keys come out in run order, so the merge is stable. */
+        private void merge(List<Path> runs, BufferedWriter writer, boolean keepKeys) throws IOException {
+            List<RunReader> readers = new ArrayList<>();
+            try {
+                PriorityQueue<RunReader> queue = new PriorityQueue<>((a, b) -> {
+                    int cmp = compareKeys(a.key, b.key);
+                    return cmp != 0 ? cmp : Integer.compare(a.index, b.index);
+                });
+                for (int i = 0; i < runs.size(); i++) {
+                    RunReader reader = new RunReader(i, CsvRecordReader.open(runs.get(i)));
+                    readers.add(reader);
+                    if (reader.advance()) {
+                        queue.add(reader);
+                    }
+                }
+                while (!queue.isEmpty()) {
+                    RunReader reader = queue.poll();
+                    writeRecord(writer, reader.key, reader.rowNumber, reader.values, keepKeys);
+                    if (reader.advance()) {
+                        queue.add(reader);
+                    }
+                }
+            } finally {
+                for (RunReader reader : readers) {
+                    reader.reader.close();
+                }
+            }
+        }
+
+        /** Runs hold the key and source row number as leading fields; the sorted output holds the row number alone. */
+        private static void writeRecord(BufferedWriter writer, String key, int rowNumber, String[] values,
+                                        boolean withKey) throws IOException {
+            List<String> record = new ArrayList<>(values.length + 2);
+            if (withKey) {
+                record.add(key);
+            }
+            record.add(Integer.toString(rowNumber));
+            record.addAll(Arrays.asList(values));
+            writer.write(Report.joinCsvLine(record));
+            writer.newLine();
+        }
+
+        private static void deleteAll(List<Path> paths) throws IOException {
+            for (Path path : paths) {
+                Files.deleteIfExists(path);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (ownsTempDir) {
+                Files.deleteIfExists(tempDir);
+            }
+        }
+
+        private record SortEntry(String key, int rowNumber, String[] values) {}
+
+        private static final class RunReader {
+            private final int index;
+            private final CsvRecordReader reader;
+            private String key;
+            private int rowNumber;
+            private String[] values;
+
+            private RunReader(int index, CsvRecordReader reader) {
+                this.index = index;
+                this.reader = reader;
+            }
+
+            private boolean advance() throws IOException {
+                if (!reader.next()) {
+                    key = null;
+                    values = null;
+                    return false;
+                }
+                key = reader.get(0);
+                rowNumber = Integer.parseInt(reader.get(1));
+                values = reader.values(2, reader.size() - 2);
+                return true;
+            }
+        }
+    }
+
+    /** Sorted roster CSV produced by {@link ExternalSorter}, with the accounting from reading its source. */
+    record SortedRoster(Path file, List<String> header, RosterAccounting accounting) implements Closeable {
+        @Override
+        public void close() throws IOException {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Compression chosen by file extension: {@code .gz} rosters are decompressed while they are parsed, and a
+     * {@code .gz} JSON report or export file is compressed as it is written. zstd needs a codec the JDK does not ship,
+     * so {@code .zst} files are refused with a clear error instead of being parsed as CSV.
+     */
+    static final class Compression {
+        static final String GZIP_SUFFIX = ".gz";
+
+        private Compression() {
+        }
+
+        static boolean isGzip(Path path) throws IOException {
+            String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+            if (name.endsWith(".zst") || name.endsWith(".zstd")) {
+                throw new IOException("zstd files are not supported; decompress or recompress as .gz: " + path);
+            }
+            return name.endsWith(GZIP_SUFFIX);
+        }
+
+        static InputStream openInput(Path path) throws IOException {
+            InputStream in = Files.newInputStream(path);
+            return isGzip(path) ? new GZIPInputStream(in, READ_BUFFER_SIZE) : in;
+        }
+
+        static OutputStream openOutput(Path path) throws IOException {
+            OutputStream out = Files.newOutputStream(path);
+            return isGzip(path) ? new GZIPOutputStream(out, READ_BUFFER_SIZE) : out;
+        }
+
+        static void writeString(Path path, String text) throws IOException {
+            try (Writer writer = new OutputStreamWriter(openOutput(path), StandardCharsets.UTF_8)) {
+                writer.write(text);
+            }
+        }
+    }
+
+    /** Field-at-a-time sink for one export file; {@link CsvWriter} and {@link ColumnarWriter} implement it. */
+    interface RecordWriter extends Closeable {
+        RecordWriter field(String value) throws IOException;
+
+        void endRecord() throws IOException;
+
+        default void record(List<String> values) throws IOException {
+            for (String value : values) {
+                field(value);
+            }
+            endRecord();
+        }
+    }
+
+    /**
+     * How export files are written: CSV or the {@link ColumnarWriter} format ({@code --export-format}), optionally
+     * gzip-compressed ({@code --export-gzip}). {@code categorical} names columns with a small fixed vocabulary, which
+     * the columnar format always dictionary-encodes; CSV ignores it.
+     */
+    record ExportFormat(boolean columnar, boolean gzip) {
+        static ExportFormat parse(String raw, boolean gzip) throws IOException {
+            String value = raw == null ? "csv" : raw.trim().toLowerCase(Locale.ROOT);
+            return switch (value) {
+                case "csv" -> new ExportFormat(false, gzip);
+                case "columnar" -> new ExportFormat(true, gzip);
+                default -> throw new IOException("Unsupported export format: " + raw + " (use csv or columnar)");
+            };
+        }
+
+        String fileName(String baseName) {
+            String name = baseName + (columnar ? ColumnarWriter.SUFFIX : ".csv");
+            return gzip ? name + Compression.GZIP_SUFFIX : name;
+        }
+
+        RecordWriter open(Path exportDir, String baseName, List<String> header, Set<String> categorical)
+                throws IOException {
+            Path output = exportDir.resolve(fileName(baseName));
+            if (columnar) {
+                return new ColumnarWriter(Compression.openOutput(output), header, categorical);
+            }
+            CsvWriter writer = CsvWriter.open(output);
+            writer.record(header);
+            return writer;
+        }
+    }
+
+    /**
+     * Streams CSV records to a file, escaping each field straight into the buffered writer so no per-row line or
+     * list is built. Quoting matches {@link Report#joinCsvLine}.
+     */
+    static final class CsvWriter implements RecordWriter {
+        private final BufferedWriter writer;
+        private boolean firstField = true;
+
+        CsvWriter(BufferedWriter writer) {
+            this.writer = writer;
+        }
+
+        static CsvWriter open(Path output) throws IOException {
+            return new CsvWriter(new BufferedWriter(
+                    new OutputStreamWriter(Compression.openOutput(output), StandardCharsets.UTF_8), READ_BUFFER_SIZE));
+        }
+
+        @Override
+        public CsvWriter field(String value) throws IOException {
+            if (!firstField) {
+                writer.write(',');
+            }
+            firstField = false;
+            if (value == null || value.isEmpty()) {
+                return this;
+            }
+            boolean needsQuotes = false;
+            for (int i = 0; i < value.length() && !needsQuotes; i++) {
+                char c = value.charAt(i);
+                needsQuotes = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!needsQuotes) {
+                writer.write(value);
+                return this;
+            }
+            writer.write('"');
+            int start = 0;
+            for (int i = 0; i < value.length(); i++) {
+                if (value.charAt(i) == '"') {
+                    writer.write(value, start, i + 1 - start);
+                    writer.write('"');
+                    start = i + 1;
+                }
+            }
+            writer.write(value, start, value.length() - start);
+            writer.write('"');
+            return this;
+        }
+
+        @Override
+        public void endRecord() throws IOException {
+            writer.newLine();
+            firstField = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes an export file in a small self-describing columnar format ({@code --export-format columnar}), so
+     * dataframe readers load whole columns without re-parsing CSV. Layout, with every count and string length an
+     * unsigned LEB128 varint and strings in UTF-8:
+     * <pre>
+     * int magic "RCOL", byte version
+     * count columns; per column: string name, byte kind (0 text, 1 category)
+     * row groups of up to {@link #ROW_GROUP_ROWS} rows: count rows; per column:
+     *     byte 0 (plain): rows strings
+     *     byte 1 (dictionary): count entries, entries strings, rows codes
+     * count 0 ends the file
+     * </pre>
+     * Category columns are always dictionary-encoded; text columns are when a group repeats values enough to pay
+     * for it. Missing values are written as empty strings, as in the CSV exports. {@link ColumnarReader} reads it back.
+     * Row-group buffers start small and double up to {@link #ROW_GROUP_ROWS}, so short exports stay cheap.
+     */
+    static final class ColumnarWriter implements RecordWriter {
+        static final String SUFFIX = ".rcol";
+        static final int MAGIC = 0x52434f4c;
+        static final int FORMAT_VERSION = 1;
+        static final int ROW_GROUP_ROWS = 1 << 16;
+        static final int INITIAL_GROUP_ROWS = 1 << 8;
+        static final byte TEXT = 0;
+        static final byte CATEGORY = 1;
+        static final byte PLAIN = 0;
+        static final byte DICTIONARY = 1;
+
+        private final DataOutputStream out;
+        private final boolean[] categorical;
+        private final String[][] groups;
+        private int capacity;
+        private int rows;
+        private int column;
+
+        ColumnarWriter(OutputStream output, List<String> header, Set<String> categoricalColumns) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(output, READ_BUFFER_SIZE));
+            this.categorical = new boolean[header.size()];
+            this.groups = new String[header.size()][0];
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            RosterSnapshot.writeLength(out, header.size());
+            for (int i = 0; i < header.size(); i++) {
+                categorical[i] = categoricalColumns.contains(header.get(i));
+                RosterSnapshot.writeString(out, header.get(i));
+                out.writeByte(categorical[i] ? CATEGORY : TEXT);
+            }
+        }
+
+        @Override
+        public ColumnarWriter field(String value) throws IOException {
+            if (column >= groups.length) {
+                throw new IOException("Export row has more than " + groups.length + " fields");
+            }
+            if (column == 0) {
+                reserveRow();
+            }
+            groups[column++][rows] = value == null ? "" : value;
+            return this;
+        }
+
+        @Override
+        public void endRecord() throws IOException {
+            if (column == 0) {
+                reserveRow();
+            }
+            while (column < groups.length) {
+                groups[column++][rows] = "";
+            }
+            column = 0;
+            if (++rows == ROW_GROUP_ROWS) {
+                writeGroup();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (rows > 0) {
+                    writeGroup();
+                }
+                RosterSnapshot.writeLength(out, 0);
+            } finally {
+                out.close();
+            }
+        }
+
+        private void reserveRow() {
+            if (rows < capacity) {
+                return;
+            }
+            capacity = Math.min(ROW_GROUP_ROWS, Math.max(INITIAL_GROUP_ROWS, capacity * 2));
+            for (int c = 0; c < groups.length; c++) {
+                groups[c] = Arrays.copyOf(groups[c], capacity);
+            }
+        }
+
+        private void writeGroup() throws IOException {
+            RosterSnapshot.writeLength(out, rows);
+            int[] codes = new int[rows];
+            for (int c = 0; c < groups.length; c++) {
+                String[] values = groups[c];
+                Map<String, Integer> dictionary = new LinkedHashMap<>();
+                int limit = categorical[c] ? Integer.MAX_VALUE : rows / 2;
+                for (int r = 0; r < rows && dictionary.size() <= limit; r++) {
+                    Integer code = dictionary.putIfAbsent(values[r], dictionary.size());
+                    codes[r] = code == null ? dictionary.size() - 1 : code;
+                }
+                if (dictionary.size() <= limit) {
+                    out.writeByte(DICTIONARY);
+                    RosterSnapshot.writeLength(out, dictionary.size());
+                    for (String entry : dictionary.keySet()) {
+                        RosterSnapshot.writeString(out, entry);
+                    }
+                    for (int r = 0; r < rows; r++) {
+                        RosterSnapshot.writeLength(out, codes[r]);
+                    }
+                } else {
+                    out.writeByte(PLAIN);
+                    for (int r = 0; r < rows; r++) {
+                        RosterSnapshot.writeString(out, values[r]);
+                    }
+                }
+                Arrays.fill(values, 0, rows, null);
+            }
+            rows = 0;
+        }
+    }
+
+    /**
+     * Reads a {@link ColumnarWriter} file one row group at a time. Dictionary-encoded columns expose their
+     * dictionary and per-row codes, so categorical columns can be loaded without materializing each string.
+     */
+    static final class ColumnarReader implements Closeable {
+        private final Path path;
+        private final DataInputStream in;
+        private final List<String> header;
+        private final boolean[] categorical;
+        private final String[][] plain;
+        private final String[][] dictionaries;
+        private final int[][] codes;
+        private int rows;
+        private boolean finished;
+
+        private ColumnarReader(Path path, DataInputStream in) throws IOException {
+            this.path = path;
+            this.in = in;
+            if (in.readInt() != ColumnarWriter.MAGIC) {
+                throw new IOException("Not a columnar export: " + path);
+            }
+            int version = in.readUnsignedByte();
+            if (version != ColumnarWriter.FORMAT_VERSION) {
+                throw new IOException("Unsupported columnar export version " + version + " in: " + path);
+            }
+            int width = RosterSnapshot.readLength(in);
+            this.header = new ArrayList<>(width);
+            this.categorical = new boolean[width];
+            for (int i = 0; i < width; i++) {
+                header.add(RosterSnapshot.readString(in));
+                categorical[i] = in.readUnsignedByte() == ColumnarWriter.CATEGORY;
+            }
+            this.plain = new String[width][];
+            this.dictionaries = new String[width][];
+            this.codes = new int[width][];
+        }
+
+        static ColumnarReader open(Path path) throws IOException {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Compression.openInput(path), READ_BUFFER_SIZE));
+            try {
+                return new ColumnarReader(path, in);
+            } catch (IOException | RuntimeException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        List<String> header() {
+            return header;
+        }
+
+        boolean categorical(int column) {
+            return categorical[column];
+        }
+
+        /** Loads the next row group; false once the file is exhausted. */
+        boolean nextGroup() throws IOException {
+            if (finished) {
+                return false;
+            }
+            try {
+                rows = RosterSnapshot.readLength(in);
+                if (rows == 0) {
+                    finished = true;
+                    return false;
+                }
+                for (int c = 0; c < header.size(); c++) {
+                    int encoding = in.readUnsignedByte();
+                    if (encoding == ColumnarWriter.DICTIONARY) {
+                        String[] dictionary = new String[RosterSnapshot.readLength(in)];
+                        for (int i = 0; i < dictionary.length; i++) {
+                            dictionary[i] = RosterSnapshot.readString(in);
+                        }
+                        int[] groupCodes = new int[rows];
+                        for (int r = 0; r < rows; r++) {
+                            groupCodes[r] = RosterSnapshot.readLength(in);
+                        }
+                        dictionaries[c] = dictionary;
+                        codes[c] = groupCodes;
+                        plain[c] = null;
+                    } else if (encoding == ColumnarWriter.PLAIN) {
+                        String[] values = new String[rows];
+                        for (int r = 0; r < rows; r++) {
+                            values[r] = RosterSnapshot.readString(in);
+                        }
+                        plain[c] = values;
+                        dictionaries[c] = null;
+                        codes[c] = null;
+                    } else {
+                        throw new IOException("Unknown column encoding " + encoding + " in: " + path);
+                    }
+                }
+                return true;
+            } catch (EOFException e) {
+                throw new IOException("Columnar export is truncated: " + path);
+            }
+        }
+
+        int rows() {
+            return rows;
+        }
+
+        String value(int column, int row) {
+            return plain[column] != null ? plain[column][row] : dictionaries[column][codes[column][row]];
+        }
+
+        /** The group's dictionary for {@code column}, or null when the column was written plain. */
+        String[] dictionary(int column) {
+            return dictionaries[column];
+        }
+
+        int code(int column, int row) {
+            return codes[column][row];
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the export bundle while a streaming reconcile runs. Keys arrive in key order, which is the order the
+     * in-memory exporters sort into, so the files match {@link Report#writeExports} output.
+     */
+    static final class ExportSink implements DiffListener {
+        private final Path exportDir;
+        private final boolean includeUnchanged;
+        private final boolean includeUpdatedRows;
+        private final boolean includeStatus;
+        private final ExportFormat format;
+        private final List<RecordWriter> writers = new ArrayList<>();
+        private RecordWriter addedWriter;
+        private RecordWriter removedWriter;
+        private RecordWriter updatedWriter;
+        private RecordWriter unchangedWriter;
+        private RecordWriter updatedRowsWriter;
+        private RecordWriter statusWriter;
+        private int[] addedColumns;
+        private int[] removedColumns;
+        private int[] prevCombinedColumns;
+        private int[] curCombinedColumns;
+
+        ExportSink(Path exportDir, boolean includeUnchanged, boolean includeUpdatedRows, boolean includeStatus,
+                   ExportFormat format) {
+            this.exportDir = exportDir;
+            this.includeUnchanged = includeUnchanged;
+            this.includeUpdatedRows = includeUpdatedRows;
+            this.includeStatus = includeStatus;
+            this.format = format;
+        }
+
+        @Override
+        public void begin(List<String> previousHeader, List<String> currentHeader, List<String> combinedHeader)
+                throws IOException {
+            Files.createDirectories(exportDir);
+            addedColumns = columnIndexes(currentHeader, currentHeader);
+            removedColumns = columnIndexes(previousHeader, previousHeader);
+            addedWriter = open("added", currentHeader, Set.of());
+            removedWriter = open("removed", previousHeader, Set.of());
+            updatedWriter = open("updated", Report.UPDATED_HEADER, Report.UPDATED_CATEGORICAL);
+            if (includeUnchanged) {
+                unchangedWriter = open("unchanged", currentHeader, Set.of());
+            }
+            if (includeUpdatedRows) {
+                List<String> header = new ArrayList<>();
+                header.add("key");
+                for (String field : combinedHeader) {
+                    header.add(field + "_before");
+                    header.add(field + "_after");
+                }
+                prevCombinedColumns = columnIndexes(previousHeader, combinedHeader);
+                curCombinedColumns = columnIndexes(currentHeader, combinedHeader);
+                updatedRowsWriter = open("updated_rows", header, Set.of());
+            }
+            if (includeStatus) {
+                statusWriter = open("status", Report.STATUS_HEADER, Report.STATUS_CATEGORICAL);
+            }
+        }
+
+        @Override
+        public void added(String key, String[] currentValues) throws IOException {
+            writeRow(addedWriter, currentValues, addedColumns);
+            writeStatus(key, "added", "");
+        }
+
+        @Override
+        public void removed(String key, String[] previousValues) throws IOException {
+            writeRow(removedWriter, previousValues, removedColumns);
+            writeStatus(key, "removed", "");
+        }
+
+        @Override
+        public void updated(Update update, String[] previousValues, String[] currentValues) throws IOException {
+            for (Map.Entry<String, Change> entry : update.changes.entrySet()) {
+                updatedWriter.field(update.key).field(entry.getKey()).field(entry.getValue().before)
+                        .field(entry.getValue().after).endRecord();
+            }
+            if (updatedRowsWriter != null) {
+                updatedRowsWriter.field(update.key);
+                for (int i = 0; i < prevCombinedColumns.length; i++) {
+                    updatedRowsWriter.field(prevCombinedColumns[i] < 0 ? "" : previousValues[prevCombinedColumns[i]]);
+                    updatedRowsWriter.field(curCombinedColumns[i] < 0 ? "" : currentValues[curCombinedColumns[i]]);
+                }
+                updatedRowsWriter.endRecord();
+            }
+            writeStatus(update.key, "updated", String.join(";", update.changes.keySet()));
+        }
+
+        @Override
+        public void unchanged(String key, String[] currentValues) throws IOException {
+            if (unchangedWriter != null) {
+                writeRow(unchangedWriter, currentValues, addedColumns);
+            }
+            writeStatus(key, "unchanged", "");
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            for (RecordWriter writer : writers) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        private RecordWriter open(String baseName, List<String> header, Set<String> categorical) throws IOException {
+            RecordWriter writer = format.open(exportDir, baseName, header, categorical);
+            writers.add(writer);
+            return writer;
+        }
+
+        private void writeStatus(String key, String status, String changedFields) throws IOException {
+            if (statusWriter != null) {
+                statusWriter.field(key).field(status).field(changedFields).endRecord();
+            }
+        }
+
+        private void writeRow(RecordWriter writer, String[] values, int[] columns) throws IOException {
+            for (int column : columns) {
+                writer.field(values[column]);
+            }
+            writer.endRecord();
+        }
+    }
+
+    /**
+     * Writes one JSON object per line for every added, removed and updated key ({@code --ndjson}), e.g.
+     * <pre>
+     * {"event":"added","key":"c@example.com","row":{"email":"c@example.com","status":"active"}}
+     * {"event":"removed","key":"a@example.com","row":{"email":"a@example.com","status":"active"}}
+     * {"event":"updated","key":"b@example.com","changes":{"status":{"before":"active","after":"paused"}}}
+     * </pre>
+     * Unchanged keys are not written. Events are written in key order through a 64 KB buffer, so a reader tailing
+     * the file sees them in blocks, possibly ending mid-line, until the sink is closed. In-memory mode replays the
+     * events after classification; the streaming modes write them as the reconcile runs.
+     */
+    static final class NdjsonSink implements DiffListener {
+        private final Path output;
+        private Writer writer;
+        private List<String> previousHeader;
+        private List<String> currentHeader;
+
+        NdjsonSink(Path output) {
+            this.output = output;
+        }
+
+        @Override
+        public void begin(List<String> previousHeader, List<String> currentHeader, List<String> combinedHeader)
+                throws IOException {
+            this.previousHeader = previousHeader;
+            this.currentHeader = currentHeader;
+            writer = new BufferedWriter(new OutputStreamWriter(Compression.openOutput(output), StandardCharsets.UTF_8),
+                    READ_BUFFER_SIZE);
+        }
+
+        @Override
+        public void added(String key, String[] currentValues) throws IOException {
+            writeRowEvent("added", key, currentHeader, currentValues);
+        }
+
+        @Override
+        public void removed(String key, String[] previousValues) throws IOException {
+            writeRowEvent("removed", key, previousHeader, previousValues);
+        }
+
+        @Override
+        public void updated(Update update, String[] previousValues, String[] currentValues) throws IOException {
+            writer.write("{\"event\":\"updated\",\"key\":");
+            writeString(update.key);
+            writer.write(",\"changes\":{");
+            boolean first = true;
+            for (Map.Entry<String, Change> entry : update.changes.entrySet()) {
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                writeString(entry.getKey());
+                writer.write(":{\"before\":");
+                writeString(entry.getValue().before);
+                writer.write(",\"after\":");
+                writeString(entry.getValue().after);
+                writer.write('}');
+            }
+            writer.write("}}\n");
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+
+        private void writeRowEvent(String event, String key, List<String> header, String[] values) throws IOException {
+            writer.write("{\"event\":\"");
+            writer.write(event);
+            writer.write("\",\"key\":");
+            writeString(key);
+            writer.write(",\"row\":{");
+            for (int i = 0; i < header.size(); i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeString(header.get(i));
+                writer.write(':');
+                writeString(i < values.length ? values[i] : null);
+            }
+            writer.write("}}\n");
+        }
+
+        private void writeString(String value) throws IOException {
+            writer.write('"');
+            if (value != null) {
+                for (int i = 0; i < value.length(); i++) {
+                    char c = value.charAt(i);
+                    switch (c) {
+                        case '"' -> writer.write("\\\"");
+                        case '\\' -> writer.write("\\\\");
+                        case '\n' -> writer.write("\\n");
+                        case '\r' -> writer.write("\\r");
+                        case '\t' -> writer.write("\\t");
+                        default -> {
+                            if (c < 0x20) {
+                                writer.write(String.format("\\u%04x", (int) c));
+                            } else {
+                                writer.write(c);
+                            }
+                        }
+                    }
+                }
+            }
+            writer.write('"');
+        }
+    }
+
+    /**
+     * Field-by-field comparison of shared rows, walking previous-roster ordinals so results come out in a stable
+     * order regardless of how the range is split across workers.
+     */
+    static final class RowComparer {
+        private final RosterTable prevRows;
+        private final RosterTable curRows;
+        private final List<String> comparableFields;
+        private final String valueNormalize;
+        private final boolean rawCompare;
+        private final int[] prevColumns;
+        private final int[] curColumns;
+        private final boolean[] sharedDictionary;
+        private final boolean[] sliceCompare;
+        private final boolean trimCompare;
+        private final boolean fingerprinted;
+        private final boolean[] matched;
+
+        RowComparer(RosterTable prevRows, RosterTable curRows, List<String> comparableFields, String valueNormalize) {
+            this(prevRows, curRows, prevRows.header(), curRows.header(), comparableFields, valueNormalize);
+        }
+
+        RowComparer(List<String> prevHeader, List<String> curHeader, List<String> comparableFields,
+                    String valueNormalize) {
+            this(null, null, prevHeader, curHeader, comparableFields, valueNormalize);
+        }
+
+        private RowComparer(RosterTable prevRows, RosterTable curRows, List<String> prevHeader, List<String> curHeader,
+                            List<String> comparableFields, String valueNormalize) {
+            this.prevRows = prevRows;
+            this.curRows = curRows;
+            this.comparableFields = comparableFields;
+            this.valueNormalize = valueNormalize;
+            this.rawCompare = valueNormalize.equals("none");
+            this.prevColumns = columnIndexes(prevHeader, comparableFields);
+            this.curColumns = columnIndexes(curHeader, comparableFields);
+            this.sharedDictionary = new boolean[comparableFields.size()];
+            this.sliceCompare = new boolean[comparableFields.size()];
+            this.trimCompare = valueNormalize.equals("trim");
+            if (prevRows != null && curRows != null) {
+                for (int i = 0; i < comparableFields.size(); i++) {
+                    ValueDictionary dictionary = prevRows.column(prevColumns[i]).dictionary();
+                    sharedDictionary[i] = dictionary != null && dictionary == curRows.column(curColumns[i]).dictionary();
+                    sliceCompare[i] = (rawCompare || trimCompare) && prevRows.column(prevColumns[i]).sliced()
+                            && curRows.column(curColumns[i]).sliced();
+                }
+            }
+            this.fingerprinted = prevRows != null && curRows != null
+                    && RowFingerprinter.covers(prevRows.fingerprinter(), comparableFields, valueNormalize)
+                    && RowFingerprinter.covers(curRows.fingerprinter(), comparableFields, valueNormalize);
+            this.matched = curRows == null ? null : new boolean[curRows.size()];
+        }
+
+        /**
+         * Classifies the previous rows in {@code [from, to)} with one probe each into the current table's
+         * {@link KeyIndex}, reusing the hash stored for the previous key. A miss is a removed key; a hit marks the
+         * current row as matched, so {@link #unmatchedCurrent} finds added keys without probing the other way.
+         */
+        DiffChunk compareRange(int from, int to) {
+            DiffChunk chunk = new DiffChunk();
+            for (int prevOrdinal = from; prevOrdinal < to; prevOrdinal++) {
+                String sharedKey = prevRows.key(prevOrdinal);
+                int curOrdinal = curRows.ordinal(sharedKey, prevRows.keyHash(prevOrdinal));
+                if (curOrdinal < 0) {
+                    chunk.removed.add(sharedKey);
+                    continue;
+                }
+                matched[curOrdinal] = true;
+                if (fingerprinted && prevRows.sameFingerprint(prevOrdinal, curRows, curOrdinal)) {
+                    chunk.unchangedKeys.add(sharedKey);
+                    continue;
+                }
+                Map<String, Change> changes = compareRow(prevOrdinal, curOrdinal, chunk.fieldChangeCounts);
+                if (changes.isEmpty()) {
+                    chunk.unchangedKeys.add(sharedKey);
+                } else {
+                    chunk.updates.add(new Update(sharedKey, changes));
+                }
+            }
+            return chunk;
+        }
+
+        private Map<String, Change> compareRow(int prevOrdinal, int curOrdinal, Map<String, Integer> fieldChangeCounts) {
+            Map<String, Change> changes = new LinkedHashMap<>();
+            for (int i = 0; i < comparableFields.size(); i++) {
+                if (sliceCompare[i]) {
+                    ColumnVector before = prevRows.column(prevColumns[i]);
+                    ColumnVector after = curRows.column(curColumns[i]);
+                    long beforeSlice = before.slice(prevOrdinal);
+                    long afterSlice = after.slice(curOrdinal);
+                    if (((MappedCsv.flags(beforeSlice) | MappedCsv.flags(afterSlice)) & MappedCsv.QUOTED) == 0) {
+                        if (!MappedCsv.sameBytes(before.source(), beforeSlice, after.source(), afterSlice,
+                                trimCompare)) {
+                            recordChange(i, before.get(prevOrdinal), after.get(curOrdinal), changes,
+                                    fieldChangeCounts);
+                        }
+                        continue;
+                    }
+                }
+                if (sharedDictionary[i]) {
+                    int beforeCode = prevRows.column(prevColumns[i]).code(prevOrdinal);
+                    int afterCode = curRows.column(curColumns[i]).code(curOrdinal);
+                    if (beforeCode == afterCode) {
+                        continue;
+                    }
+                    if (rawCompare) {
+                        recordChange(i, prevRows.value(prevOrdinal, prevColumns[i]),
+                                curRows.value(curOrdinal, curColumns[i]), changes, fieldChangeCounts);
+                        continue;
+                    }
+                }
+                compareField(i, prevRows.value(prevOrdinal, prevColumns[i]), curRows.value(curOrdinal, curColumns[i]),
+                        changes, fieldChangeCounts);
+            }
+            return changes;
+        }
+
+        /** Current keys no previous row matched, in current row order; valid once every range has been compared. */
+        List<String> unmatchedCurrent() {
+            List<String> added = new ArrayList<>();
+            for (int ordinal = 0; ordinal < matched.length; ordinal++) {
+                if (!matched[ordinal]) {
+                    added.add(curRows.key(ordinal));
+                }
+            }
+            return added;
+        }
+
+        Map<String, Change> compareValues(String[] prevValues, String[] curValues, Map<String, Integer> fieldChangeCounts) {
+            Map<String, Change> changes = new LinkedHashMap<>();
+            for (int i = 0; i < comparableFields.size(); i++) {
+                compareField(i, prevValues[prevColumns[i]], curValues[curColumns[i]], changes, fieldChangeCounts);
+            }
+            return changes;
+        }
+
+        private void compareField(int i, String before, String after, Map<String, Change> changes,
+                                  Map<String, Integer> fieldChangeCounts) {
+            if (!normalizedEquals(before, after, valueNormalize)) {
+                recordChange(i, before, after, changes, fieldChangeCounts);
+            }
+        }
+
+        private void recordChange(int i, String before, String after, Map<String, Change> changes,
+                                  Map<String, Integer> fieldChangeCounts) {
+            String field = comparableFields.get(i);
+            changes.put(field, new Change(before, after));
+            fieldChangeCounts.put(field, fieldChangeCounts.getOrDefault(field, 0) + 1);
+        }
+    }
+
+    /**
+     * Shared-row results for a contiguous ordinal range. Merging chunks in range order reproduces the
+     * sequential result exactly, including the first-seen order of field change counts.
+     */
+    static final class DiffChunk {
+        private final List<String> removed = new ArrayList<>();
+        private final List<Update> updates = new ArrayList<>();
+        private final List<String> unchangedKeys = new ArrayList<>();
+        private final Map<String, Integer> fieldChangeCounts = new LinkedHashMap<>();
+
+        DiffChunk merge(DiffChunk next) {
+            removed.addAll(next.removed);
+            updates.addAll(next.updates);
+            unchangedKeys.addAll(next.unchangedKeys);
+            for (Map.Entry<String, Integer> entry : next.fieldChangeCounts.entrySet()) {
+                fieldChangeCounts.merge(entry.getKey(), entry.getValue(), Integer::sum);
+            }
+            return this;
+        }
+    }
+
+    static final class DiffTask extends RecursiveTask<DiffChunk> {
+        private static final long serialVersionUID = 1L;
+        static final int MIN_CHUNK_SIZE = 4096;
+
+        private final RowComparer comparer;
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+
+        DiffTask(RowComparer comparer, int from, int to, int chunkSize) {
+            this.comparer = comparer;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected DiffChunk compute() {
+            if (to - from <= chunkSize) {
+                return comparer.compareRange(from, to);
+            }
+            int mid = from + (to - from) / 2;
+            DiffTask left = new DiffTask(comparer, from, mid, chunkSize);
+            DiffTask right = new DiffTask(comparer, mid, to, chunkSize);
+            left.fork();
+            DiffChunk rightChunk = right.compute();
+            return left.join().merge(rightChunk);
+        }
+    }
+
+    record RosterLoadOptions(List<String> keyColumns, String keyNormalize, DictionaryEncoding dictionaries,
+                             FingerprintSpec fingerprints) {
+        RosterLoadOptions(List<String> keyColumns, String keyNormalize, DictionaryEncoding dictionaries) {
+            this(keyColumns, keyNormalize, dictionaries, null);
+        }
+    }
+
+    /** Which fields a row fingerprint covers ({@code --ignore}) and how values are normalized first. */
+    record FingerprintSpec(Set<String> ignoredFields, String valueNormalize) {
+        RowFingerprinter bind(List<String> header) {
+            List<String> fields = new ArrayList<>();
+            for (String field : header) {
+                if (!ignoredFields.contains(field)) {
+                    fields.add(field);
+                }
+            }
+            return new RowFingerprinter(fields, columnIndexes(header, fields), valueNormalize);
+        }
+    }
+
+    /**
+     * 128-bit hash of a row's normalized comparable values, computed once while the row is loaded. Fields are
+     * hashed in header order with a length-tagged separator, so equal fingerprints mean equal values with
+     * overwhelming probability. {@link RowComparer} only trusts them when the fingerprint covers exactly its
+     * comparable fields, which holds whenever both rosters share the same header. Each table binds its own
+     * instance, which keeps hash state between calls and is not thread-safe.
+     */
+    static final class RowFingerprinter {
+        private final List<String> fields;
+        private final int[] columns;
+        private final String valueNormalize;
+        private long h1;
+        private long h2;
+
+        RowFingerprinter(List<String> fields, int[] columns, String valueNormalize) {
+            this.fields = fields;
+            this.columns = columns;
+            this.valueNormalize = valueNormalize;
+        }
+
+        List<String> fields() {
+            return fields;
+        }
+
+        String valueNormalize() {
+            return valueNormalize;
+        }
+
+        static boolean covers(RowFingerprinter fingerprinter, List<String> comparableFields, String valueNormalize) {
+            return fingerprinter != null && fingerprinter.fields.equals(comparableFields)
+                    && fingerprinter.valueNormalize.equals(valueNormalize);
+        }
+
+        /** Writes the fingerprint of {@code values} into {@code high[ordinal]} and {@code low[ordinal]}. */
+        void fingerprint(String[] values, long[] high, long[] low, int ordinal) {
+            h1 = 0xcbf29ce484222325L;
+            h2 = 0x6a09e667f3bcc909L;
+            for (int column : columns) {
+                hashValue(normalizeFieldValue(values[column], valueNormalize));
+            }
+            high[ordinal] = mix(h1);
+            low[ordinal] = mix(h2 ^ h1);
+        }
+
+        /**
+         * Same fingerprint for a mapped row. Plain ASCII slices are hashed byte by byte (each byte is its char)
+         * when the normalization is {@code none} or {@code trim}; anything else is decoded first.
+         */
+        void fingerprint(MappedCsv source, long[] slices, long[] high, long[] low, int ordinal) {
+            h1 = 0xcbf29ce484222325L;
+            h2 = 0x6a09e667f3bcc909L;
+            boolean trim = valueNormalize.equals("trim");
+            boolean bytewise = trim || valueNormalize.equals("none");
+            for (int column : columns) {
+                long slice = slices[column];
+                if (!bytewise || MappedCsv.flags(slice) != 0) {
+                    hashValue(normalizeFieldValue(source.decode(slice), valueNormalize));
+                    continue;
+                }
+                int start = MappedCsv.offset(slice);
+                int end = start + MappedCsv.length(slice);
+                if (trim) {
+                    while (start < end && MappedCsv.isTrimmed(source.byteAt(start))) {
+                        start++;
+                    }
+                    while (end > start && MappedCsv.isTrimmed(source.byteAt(end - 1))) {
+                        end--;
+                    }
+                }
+                for (int i = start; i < end; i++) {
+                    hashChar((char) source.byteAt(i));
+                }
+                hashEnd(end - start);
+            }
+            high[ordinal] = mix(h1);
+            low[ordinal] = mix(h2 ^ h1);
+        }
+
+        private void hashValue(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                hashChar(value.charAt(i));
+            }
+            hashEnd(value.length());
+        }
+
+        private void hashChar(char c) {
+            h1 = (h1 ^ c) * 0x100000001b3L;
+            h2 = Long.rotateLeft(h2 + c, 31) * 0x9e3779b97f4a7c15L;
+        }
+
+        private void hashEnd(int length) {
+            h1 = (h1 ^ (0x10000L + length)) * 0x100000001b3L;
+            h2 = Long.rotateLeft(h2 ^ (0x10000L + length), 27) * 0xc2b2ae3d27d4eb4fL;
+        }
+
+        private static long mix(long h) {
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+
+    record Roster(List<String> header, RosterTable rows, int duplicates, int invalid,
+                  List<String> duplicateKeys, List<Integer> invalidRows, Map<String, Integer> missingKeyCounts,
+                  int totalRows, Map<String, Integer> nonEmptyCounts) {}
+
+    /**
+     * Column-oriented row storage: one value array per header column, indexed by row ordinal,
+     * plus a key to ordinal index. Rows keep their first-seen order.
+     */
+    static final class RosterTable {
+        private static final int INITIAL_CAPACITY = 256;
+
+        private final List<String> header;
+        private final Map<String, Integer> columnIndex = new HashMap<>();
+        private final KeyIndex keys = new KeyIndex(INITIAL_CAPACITY);
+        private final ColumnVector[] columns;
+        private final RowFingerprinter fingerprinter;
+        private final MappedCsv source;
+        private long[] fingerprintHigh;
+        private long[] fingerprintLow;
+        private int capacity = INITIAL_CAPACITY;
+        private int size;
+
+        RosterTable(List<String> header) {
+            this(header, DictionaryEncoding.none());
+        }
+
+        RosterTable(List<String> header, DictionaryEncoding dictionaries) {
+            this(header, dictionaries, null);
+        }
+
+        RosterTable(List<String> header, DictionaryEncoding dictionaries, FingerprintSpec fingerprints) {
+            this(header, dictionaries, fingerprints, null);
+        }
+
+        /** A table whose plain columns hold slices of {@code source} instead of Strings. */
+        RosterTable(List<String> header, DictionaryEncoding dictionaries, FingerprintSpec fingerprints,
+                    MappedCsv source) {
+            this.header = header;
+            this.source = source;
+            this.columns = new ColumnVector[header.size()];
+            for (int i = 0; i < header.size(); i++) {
+                columnIndex.put(header.get(i), i);
+                columns[i] = new ColumnVector(dictionaries.dictionaryFor(header.get(i)),
+                        dictionaries.maxCardinality(), INITIAL_CAPACITY, source);
+            }
+            this.fingerprinter = fingerprints == null ? null : fingerprints.bind(header);
+            if (fingerprinter != null) {
+                fingerprintHigh = new long[INITIAL_CAPACITY];
+                fingerprintLow = new long[INITIAL_CAPACITY];
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        List<String> header() {
+            return header;
+        }
+
+        boolean containsKey(String key) {
+            return keys.ordinal(key) >= 0;
+        }
+
+        int ordinal(String key) {
+            return keys.ordinal(key);
+        }
+
+        /** Looks up a key by the {@link KeyIndex#hash(String)} another table already stored for it. */
+        int ordinal(String key, long hash) {
+            return keys.ordinal(key, hash);
+        }
+
+        String key(int ordinal) {
+            return keys.key(ordinal);
+        }
+
+        long keyHash(int ordinal) {
+            return keys.hash(ordinal);
+        }
+
+        int columnIndex(String field) {
+            Integer index = columnIndex.get(field);
+            return index == null ? -1 : index;
+        }
+
+        String value(int ordinal, int column) {
+            return column < 0 ? "" : columns[column].get(ordinal);
+        }
+
+        ColumnVector column(int column) {
+            return columns[column];
+        }
+
+        RowFingerprinter fingerprinter() {
+            return fingerprinter;
+        }
+
+        long fingerprintHigh(int ordinal) {
+            return fingerprintHigh[ordinal];
+        }
+
+        long fingerprintLow(int ordinal) {
+            return fingerprintLow[ordinal];
+        }
+
+        boolean sameFingerprint(int ordinal, RosterTable other, int otherOrdinal) {
+            return fingerprintHigh[ordinal] == other.fingerprintHigh[otherOrdinal]
+                    && fingerprintLow[ordinal] == other.fingerprintLow[otherOrdinal];
+        }
+
+        String value(int ordinal, String field) {
+            return value(ordinal, columnIndex(field));
+        }
+
+        String[] row(int ordinal) {
+            String[] values = new String[columns.length];
+            for (int c = 0; c < columns.length; c++) {
+                values[c] = columns[c].get(ordinal);
+            }
+            return values;
+        }
+
+        int add(String key, String[] values) {
+            int ordinal = append(key, values);
+            if (fingerprinter != null) {
+                fingerprinter.fingerprint(values, fingerprintHigh, fingerprintLow, ordinal);
+            }
+            return ordinal;
+        }
+
+        /** Adds a row whose fingerprint was already computed with this table's fingerprint settings. */
+        int add(String key, String[] values, long high, long low) {
+            int ordinal = append(key, values);
+            fingerprintHigh[ordinal] = high;
+            fingerprintLow[ordinal] = low;
+            return ordinal;
+        }
+
+        int addSlices(String key, long[] slices) {
+            int ordinal = reserve(key);
+            for (int c = 0; c < columns.length; c++) {
+                if (columns[c].sliced()) {
+                    columns[c].setSlice(ordinal, slices[c]);
+                } else {
+                    columns[c].set(ordinal, source.decode(slices[c]));
+                }
+            }
+            if (fingerprinter != null) {
+                fingerprinter.fingerprint(source, slices, fingerprintHigh, fingerprintLow, ordinal);
+            }
+            return ordinal;
         }
-        return options;
-    }
 
-    private static Set<String> parseIgnoredFields(String raw) {
-        Set<String> ignored = new HashSet<>();
-        if (raw == null || raw.isBlank()) {
-            return ignored;
+        private int append(String key, String[] values) {
+            int ordinal = reserve(key);
+            for (int c = 0; c < columns.length; c++) {
+                columns[c].set(ordinal, values[c]);
+            }
+            return ordinal;
         }
-        String[] parts = raw.split(",");
-        for (String part : parts) {
-            String trimmed = part.trim();
-            if (!trimmed.isBlank()) {
-                ignored.add(trimmed);
+
+        private int reserve(String key) {
+            if (size == capacity) {
+                capacity *= 2;
+                for (ColumnVector column : columns) {
+                    column.resize(capacity);
+                }
+                if (fingerprinter != null) {
+                    fingerprintHigh = Arrays.copyOf(fingerprintHigh, capacity);
+                    fingerprintLow = Arrays.copyOf(fingerprintLow, capacity);
+                }
             }
+            size++;
+            return keys.add(key);
         }
-        return ignored;
     }
 
-    private static List<String> parseKeyColumns(String raw) {
-        List<String> columns = new ArrayList<>();
-        if (raw == null || raw.isBlank()) {
-            columns.add(DEFAULT_KEY);
-            return columns;
-        }
-        String[] parts = raw.split(",");
-        for (String part : parts) {
-            String trimmed = part.trim();
-            if (!trimmed.isBlank()) {
-                columns.add(trimmed);
-            }
+    /**
+     * Insertion-ordered key to ordinal index for {@link RosterTable}, using open addressing over primitive arrays
+     * instead of a {@code HashMap<String, Integer>}: no entry nodes or boxed ordinals per row. Each key's 64-bit
+     * hash is computed once on insert and kept beside it, so a probe compares hashes and only calls
+     * {@link String#equals} on a hash match. Slots hold ordinals, linear probing, at most half full.
+     */
+    static final class KeyIndex {
+        private static final int EMPTY = -1;
+
+        private String[] keys;
+        private long[] hashes;
+        private int[] slots;
+        private int mask;
+        private int size;
+
+        KeyIndex(int initialCapacity) {
+            this.keys = new String[initialCapacity];
+            this.hashes = new long[initialCapacity];
+            int tableSize = Integer.highestOneBit(Math.max(initialCapacity, 8) * 2 - 1) * 2;
+            this.slots = new int[tableSize];
+            Arrays.fill(slots, EMPTY);
+            this.mask = tableSize - 1;
         }
-        if (columns.isEmpty()) {
-            columns.add(DEFAULT_KEY);
+
+        int size() {
+            return size;
         }
-        return columns;
-    }
 
-    private static void validateKeyNormalize(String keyNormalize) throws IOException {
-        if (!keyNormalize.equals("none") && !keyNormalize.equals("lower") && !keyNormalize.equals("upper")) {
-            throw new IOException("Invalid --key-normalize value: " + keyNormalize + " (use none|lower|upper)");
+        String key(int ordinal) {
+            return keys[ordinal];
         }
-    }
 
-    private static void validateValueNormalize(String valueNormalize) throws IOException {
-        if (!valueNormalize.equals("none") && !valueNormalize.equals("trim") && !valueNormalize.equals("collapse")) {
-            throw new IOException("Invalid --value-normalize value: " + valueNormalize + " (use none|trim|collapse)");
+        long hash(int ordinal) {
+            return hashes[ordinal];
         }
-    }
 
-    private static void validateSchemaName(String schema) throws IOException {
-        if (schema == null || schema.isBlank()) {
-            throw new IOException("Invalid --db-schema value: cannot be blank");
+        int ordinal(String key) {
+            return ordinal(key, hash(key));
         }
-        if (!schema.matches("[A-Za-z_][A-Za-z0-9_]*")) {
-            throw new IOException("Invalid --db-schema value: " + schema + " (use letters, numbers, underscores)");
+
+        /** Looks up a key whose {@link #hash(String)} the caller already has. */
+        int ordinal(String key, long hash) {
+            int slot = (int) hash & mask;
+            while (true) {
+                int ordinal = slots[slot];
+                if (ordinal == EMPTY) {
+                    return -1;
+                }
+                if (hashes[ordinal] == hash && keys[ordinal].equals(key)) {
+                    return ordinal;
+                }
+                slot = (slot + 1) & mask;
+            }
         }
-    }
 
-    private static int parseDetailLimit(String raw) throws IOException {
-        if (raw == null || raw.isBlank()) {
-            return 0;
+        /** Appends a key that is not yet present and returns its ordinal. */
+        int add(String key) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                hashes = Arrays.copyOf(hashes, size * 2);
+            }
+            if ((size + 1) * 2 > slots.length) {
+                rehash(slots.length * 2);
+            }
+            long hash = hash(key);
+            int ordinal = size++;
+            keys[ordinal] = key;
+            hashes[ordinal] = hash;
+            insert(ordinal, hash);
+            return ordinal;
         }
-        try {
-            int value = Integer.parseInt(raw.trim());
-            if (value < 0) {
-                throw new IOException("Invalid --max-detail value: " + raw + " (must be >= 0)");
+
+        private void insert(int ordinal, long hash) {
+            int slot = (int) hash & mask;
+            while (slots[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
             }
-            return value;
-        } catch (NumberFormatException e) {
-            throw new IOException("Invalid --max-detail value: " + raw + " (must be an integer)", e);
+            slots[slot] = ordinal;
         }
-    }
 
-    static String normalizeKeyValue(String value, String keyNormalize) {
-        if (value == null) {
-            return "";
+        private void rehash(int tableSize) {
+            slots = new int[tableSize];
+            Arrays.fill(slots, EMPTY);
+            mask = tableSize - 1;
+            for (int ordinal = 0; ordinal < size; ordinal++) {
+                insert(ordinal, hashes[ordinal]);
+            }
         }
-        return switch (keyNormalize) {
-            case "lower" -> value.toLowerCase();
-            case "upper" -> value.toUpperCase();
-            default -> value;
-        };
-    }
 
-    static String normalizeFieldValue(String value, String valueNormalize) {
-        if (value == null) {
-            return "";
+        /** 64-bit FNV-1a over the key's chars, finished with a MurmurHash3 mix so the low bits spread well. */
+        static long hash(String key) {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < key.length(); i++) {
+                hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+            }
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            hash *= 0xc4ceb9fe1a85ec53L;
+            return hash ^ (hash >>> 33);
         }
-        return switch (valueNormalize) {
-            case "trim" -> value.trim();
-            case "collapse" -> value.trim().replaceAll("\\s+", " ");
-            default -> value;
-        };
     }
 
-    static Roster readRoster(Path path, List<String> keyColumns, String keyNormalize) throws IOException {
-        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
-        if (lines.isEmpty()) {
-            throw new IOException("CSV is empty: " + path);
+    /**
+     * Values of one roster column. Plain columns hold a String per row; dictionary-encoded columns hold an
+     * int code per row against a {@link ValueDictionary} shared by both rosters, so equal values on either
+     * side carry equal codes. A capped column falls back to plain storage once its dictionary grows past
+     * the cardinality limit.
+     */
+    static final class ColumnVector {
+        private final int maxCardinality;
+        private ValueDictionary dictionary;
+        private final MappedCsv source;
+        private String[] values;
+        private int[] codes;
+        private long[] slices;
+
+        ColumnVector(ValueDictionary dictionary, int maxCardinality, int capacity) {
+            this(dictionary, maxCardinality, capacity, null);
         }
 
-        List<String> header = parseCsvLine(lines.get(0));
-        List<String> missingKeys = new ArrayList<>();
-        for (String keyColumn : keyColumns) {
-            if (!header.contains(keyColumn)) {
-                missingKeys.add(keyColumn);
+        ColumnVector(ValueDictionary dictionary, int maxCardinality, int capacity, MappedCsv source) {
+            this.dictionary = dictionary;
+            this.maxCardinality = maxCardinality;
+            this.source = dictionary == null ? source : null;
+            if (dictionary != null) {
+                codes = new int[capacity];
+            } else if (source != null) {
+                slices = new long[capacity];
+            } else {
+                values = new String[capacity];
             }
         }
-        if (!missingKeys.isEmpty()) {
-            throw new IOException("Key column(s) " + String.join(", ", missingKeys) + " not found in: " + path);
+
+        boolean sliced() {
+            return slices != null;
         }
-        Map<String, Map<String, String>> rows = new LinkedHashMap<>();
-        Map<String, Integer> nonEmptyCounts = new LinkedHashMap<>();
-        Map<String, Integer> missingKeyCounts = new LinkedHashMap<>();
-        int duplicates = 0;
-        int invalid = 0;
-        int totalRows = 0;
-        List<String> duplicateKeys = new ArrayList<>();
-        List<Integer> invalidRows = new ArrayList<>();
 
-        for (String field : header) {
-            nonEmptyCounts.put(field, 0);
+        MappedCsv source() {
+            return source;
         }
 
-        for (int i = 1; i < lines.size(); i++) {
-            String line = lines.get(i).trim();
-            if (line.isEmpty()) {
-                continue;
-            }
-            totalRows++;
-            List<String> values = parseCsvLine(line);
-            if (values.size() < header.size()) {
-                while (values.size() < header.size()) {
-                    values.add("");
-                }
-            } else if (values.size() > header.size()) {
-                values = values.subList(0, header.size());
+        long slice(int row) {
+            return slices[row];
+        }
+
+        void setSlice(int row, long slice) {
+            slices[row] = slice;
+        }
+
+        ValueDictionary dictionary() {
+            return dictionary;
+        }
+
+        String get(int row) {
+            if (slices != null) {
+                return source.decode(slices[row]);
             }
+            return dictionary == null ? values[row] : dictionary.value(codes[row]);
+        }
 
-            Map<String, String> row = new LinkedHashMap<>();
-            for (int j = 0; j < header.size(); j++) {
-                String value = values.get(j);
-                row.put(header.get(j), value);
-                if (!value.trim().isBlank()) {
-                    nonEmptyCounts.put(header.get(j), nonEmptyCounts.get(header.get(j)) + 1);
+        int code(int row) {
+            return codes[row];
+        }
+
+        void set(int row, String value) {
+            if (dictionary != null) {
+                int code = dictionary.encode(value);
+                if (dictionary.size() <= maxCardinality) {
+                    codes[row] = code;
+                    return;
                 }
+                decodeAll(row);
             }
+            values[row] = value;
+        }
 
-            List<String> keyParts = new ArrayList<>();
-            boolean missingKey = false;
-            for (String keyColumn : keyColumns) {
-                String raw = row.getOrDefault(keyColumn, "").trim();
-                if (raw.isBlank()) {
-                    missingKey = true;
-                    missingKeyCounts.put(keyColumn, missingKeyCounts.getOrDefault(keyColumn, 0) + 1);
-                } else {
-                    keyParts.add(normalizeKeyValue(raw, keyNormalize));
-                }
+        void resize(int capacity) {
+            if (slices != null) {
+                slices = Arrays.copyOf(slices, capacity);
+            } else if (dictionary == null) {
+                values = Arrays.copyOf(values, capacity);
+            } else {
+                codes = Arrays.copyOf(codes, capacity);
             }
-            if (missingKey) {
-                invalid++;
-                invalidRows.add(i + 1);
-                continue;
+        }
+
+        private void decodeAll(int rowCount) {
+            values = new String[codes.length];
+            for (int row = 0; row < rowCount; row++) {
+                values[row] = dictionary.value(codes[row]);
             }
-            String compositeKey = String.join("||", keyParts);
+            codes = null;
+            dictionary = null;
+        }
+    }
 
-            if (rows.containsKey(compositeKey)) {
-                duplicates++;
-                duplicateKeys.add(compositeKey);
-                continue;
+    /**
+     * Value to code mapping for one column, shared by both rosters and safe to use from concurrent loads. Lookups
+     * of known values take no lock; a new value is appended under the lock and published through the code map,
+     * after its slot in {@code values} is written, so any code a reader obtains already resolves.
+     */
+    static final class ValueDictionary {
+        private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+        private volatile String[] values = new String[16];
+        private volatile int size;
+
+        int encode(String value) {
+            Integer code = codes.get(value);
+            return code != null ? code : append(value);
+        }
+
+        private synchronized int append(String value) {
+            Integer existing = codes.get(value);
+            if (existing != null) {
+                return existing;
             }
+            int code = size;
+            String[] slots = code < values.length ? values : Arrays.copyOf(values, values.length * 2);
+            slots[code] = value;
+            values = slots;
+            size = code + 1;
+            codes.put(value, code);
+            return code;
+        }
 
-            rows.put(compositeKey, row);
+        String value(int code) {
+            return values[code];
         }
 
-        return new Roster(header, rows, duplicates, invalid, duplicateKeys, invalidRows, missingKeyCounts, totalRows, nonEmptyCounts);
+        int size() {
+            return size;
+        }
     }
 
-    static List<String> parseCsvLine(String line) {
-        List<String> fields = new ArrayList<>();
-        StringBuilder current = new StringBuilder();
-        boolean inQuotes = false;
+    /**
+     * Which columns are dictionary-encoded on load: none, an explicit list, or {@code auto}, which encodes every
+     * column and lets high-cardinality ones fall back to plain storage. Dictionaries are shared per column name so
+     * previous and current rosters agree on codes.
+     */
+    static final class DictionaryEncoding {
+        static final int AUTO_MAX_CARDINALITY = 256;
 
-        for (int i = 0; i < line.length(); i++) {
-            char c = line.charAt(i);
-            if (inQuotes) {
-                if (c == '"') {
-                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
-                        current.append('"');
-                        i++;
-                    } else {
-                        inQuotes = false;
-                    }
-                } else {
-                    current.append(c);
-                }
-            } else {
-                if (c == '"') {
-                    inQuotes = true;
-                } else if (c == ',') {
-                    fields.add(current.toString());
-                    current.setLength(0);
-                } else {
-                    current.append(c);
-                }
+        private final boolean auto;
+        private final Set<String> columns;
+        private final Map<String, ValueDictionary> dictionaries = new ConcurrentHashMap<>();
+
+        private DictionaryEncoding(boolean auto, Set<String> columns) {
+            this.auto = auto;
+            this.columns = columns;
+        }
+
+        static DictionaryEncoding none() {
+            return new DictionaryEncoding(false, Set.of());
+        }
+
+        static DictionaryEncoding parse(String raw) {
+            if (raw == null || raw.isBlank()) {
+                return none();
+            }
+            if (raw.trim().equals("auto")) {
+                return new DictionaryEncoding(true, Set.of());
             }
+            return new DictionaryEncoding(false, parseIgnoredFields(raw));
         }
-        fields.add(current.toString());
-        return fields;
-    }
 
-    private static Report diff(Roster previous, Roster current, List<String> keyColumns, Set<String> ignoredFields,
-                               String keyNormalize, String valueNormalize, boolean summaryOnly, int detailLimit) {
-        Set<String> prevKeys = previous.rows.keySet();
-        Set<String> curKeys = current.rows.keySet();
+        /** Same column selection with empty dictionaries, for rosters reconciled independently of this pair. */
+        DictionaryEncoding fresh() {
+            return new DictionaryEncoding(auto, columns);
+        }
+
+        ValueDictionary dictionaryFor(String column) {
+            if (!auto && !columns.contains(column)) {
+                return null;
+            }
+            return dictionaries.computeIfAbsent(column, name -> new ValueDictionary());
+        }
 
-        Set<String> added = new HashSet<>(curKeys);
-        added.removeAll(prevKeys);
+        int maxCardinality() {
+            return auto ? AUTO_MAX_CARDINALITY : Integer.MAX_VALUE;
+        }
+    }
 
-        Set<String> removed = new HashSet<>(prevKeys);
-        removed.removeAll(curKeys);
+    record Change(String before, String after) {}
 
-        Set<String> shared = new HashSet<>(prevKeys);
-        shared.retainAll(curKeys);
+    record Update(String key, Map<String, Change> changes) {}
 
-        Set<String> addedColumns = new HashSet<>(current.header);
-        addedColumns.removeAll(previous.header);
+    /**
+     * Every key a reconcile classified, sorted once by {@link #compareKeys}, with a status byte per key and, for
+     * updated keys, the index of its {@link Update} in {@link #updates()}. Each status group is sorted on its own
+     * (in parallel for large groups) and the four sorted runs are merged, so the full key set is never hashed or
+     * sorted again: the text and JSON detail, the exporters and {@link Report#replay} all walk this one array.
+     */
+    static final class KeyClassification {
+        static final byte ADDED = 0;
+        static final byte REMOVED = 1;
+        static final byte UPDATED = 2;
+        static final byte UNCHANGED = 3;
+        private static final String[] STATUS_NAMES = {"added", "removed", "updated", "unchanged"};
 
-        Set<String> removedColumns = new HashSet<>(previous.header);
-        removedColumns.removeAll(current.header);
+        private final String[] keys;
+        private final byte[] statuses;
+        private final int[] updateIndexes;
+        private final List<Update> updates;
 
-        Set<String> combinedHeaders = new HashSet<>(previous.header);
-        combinedHeaders.addAll(current.header);
-        List<String> combinedHeaderList = new ArrayList<>(previous.header);
-        for (String field : current.header) {
-            if (!combinedHeaderList.contains(field)) {
-                combinedHeaderList.add(field);
-            }
+        private KeyClassification(String[] keys, byte[] statuses, int[] updateIndexes, List<Update> updates) {
+            this.keys = keys;
+            this.statuses = statuses;
+            this.updateIndexes = updateIndexes;
+            this.updates = updates;
         }
-        Set<String> unknownIgnored = new HashSet<>();
-        for (String ignored : ignoredFields) {
-            if (!combinedHeaders.contains(ignored)) {
-                unknownIgnored.add(ignored);
+
+        /** The four groups must be disjoint; {@code updates} may be in any order. */
+        static KeyClassification of(Collection<String> added, Collection<String> removed, List<Update> updates,
+                                    Collection<String> unchanged) {
+            String[] addedKeys = sorted(added);
+            String[] removedKeys = sorted(removed);
+            String[] unchangedKeys = sorted(unchanged);
+            Update[] sortedUpdates = updates.toArray(new Update[0]);
+            Arrays.parallelSort(sortedUpdates, (a, b) -> compareKeys(a.key, b.key));
+
+            int size = addedKeys.length + removedKeys.length + sortedUpdates.length + unchangedKeys.length;
+            String[] keys = new String[size];
+            byte[] statuses = new byte[size];
+            int[] updateIndexes = new int[size];
+            int a = 0;
+            int r = 0;
+            int u = 0;
+            int c = 0;
+            for (int i = 0; i < size; i++) {
+                String next = null;
+                byte status = -1;
+                if (a < addedKeys.length) {
+                    next = addedKeys[a];
+                    status = ADDED;
+                }
+                if (r < removedKeys.length && (next == null || compareKeys(removedKeys[r], next) < 0)) {
+                    next = removedKeys[r];
+                    status = REMOVED;
+                }
+                if (u < sortedUpdates.length && (next == null || compareKeys(sortedUpdates[u].key, next) < 0)) {
+                    next = sortedUpdates[u].key;
+                    status = UPDATED;
+                }
+                if (c < unchangedKeys.length && (next == null || compareKeys(unchangedKeys[c], next) < 0)) {
+                    next = unchangedKeys[c];
+                    status = UNCHANGED;
+                }
+                keys[i] = next;
+                statuses[i] = status;
+                updateIndexes[i] = -1;
+                switch (status) {
+                    case ADDED -> a++;
+                    case REMOVED -> r++;
+                    case UPDATED -> updateIndexes[i] = u++;
+                    default -> c++;
+                }
             }
+            return new KeyClassification(keys, statuses, updateIndexes, Arrays.asList(sortedUpdates));
         }
 
-        List<String> comparableFields = new ArrayList<>();
-        Set<String> currentHeaderSet = new HashSet<>(current.header);
-        for (String field : previous.header) {
-            if (currentHeaderSet.contains(field) && !ignoredFields.contains(field)) {
-                comparableFields.add(field);
-            }
+        private static String[] sorted(Collection<String> values) {
+            String[] sorted = values.toArray(new String[0]);
+            Arrays.parallelSort(sorted, Main::compareKeys);
+            return sorted;
         }
 
-        List<Update> updates = new ArrayList<>();
-        int unchanged = 0;
-        Set<String> unchangedKeys = new HashSet<>();
-        Map<String, Integer> fieldChangeCounts = new LinkedHashMap<>();
+        static String statusName(byte status) {
+            return STATUS_NAMES[status];
+        }
 
-        for (String sharedKey : shared) {
-            Map<String, String> prevRow = previous.rows.get(sharedKey);
-            Map<String, String> curRow = current.rows.get(sharedKey);
-            Map<String, Change> changes = new LinkedHashMap<>();
-            for (String field : comparableFields) {
-                String before = prevRow.getOrDefault(field, "");
-                String after = curRow.getOrDefault(field, "");
-                String beforeNormalized = normalizeFieldValue(before, valueNormalize);
-                String afterNormalized = normalizeFieldValue(after, valueNormalize);
-                if (!beforeNormalized.equals(afterNormalized)) {
-                    changes.put(field, new Change(before, after));
-                    fieldChangeCounts.put(field, fieldChangeCounts.getOrDefault(field, 0) + 1);
-                }
-            }
-            if (changes.isEmpty()) {
-                unchanged++;
-                unchangedKeys.add(sharedKey);
-            } else {
-                updates.add(new Update(sharedKey, changes));
-            }
+        int size() {
+            return keys.length;
         }
 
-        updates.sort(Comparator.comparing(update -> update.key));
+        String key(int index) {
+            return keys[index];
+        }
 
-        return new Report(previous, current, keyColumns, keyNormalize, valueNormalize, added, removed, updates, unchanged,
-                fieldChangeCounts, ignoredFields, unknownIgnored, addedColumns, removedColumns, unchangedKeys,
-                combinedHeaderList, summaryOnly, detailLimit);
-    }
+        byte status(int index) {
+            return statuses[index];
+        }
 
-    record Roster(List<String> header, Map<String, Map<String, String>> rows, int duplicates, int invalid,
-                  List<String> duplicateKeys, List<Integer> invalidRows, Map<String, Integer> missingKeyCounts,
-                  int totalRows, Map<String, Integer> nonEmptyCounts) {}
+        /** Index into {@link #updates()} for an updated key, or -1. */
+        int updateIndex(int index) {
+            return updateIndexes[index];
+        }
 
-    record Change(String before, String after) {}
+        /** The updates in key order. */
+        List<Update> updates() {
+            return updates;
+        }
 
-    record Update(String key, Map<String, Change> changes) {}
+        /** The first {@code limit} keys with {@code status}, in key order. */
+        List<String> keys(byte status, int limit) {
+            List<String> matching = new ArrayList<>();
+            for (int i = 0; i < keys.length && matching.size() < limit; i++) {
+                if (statuses[i] == status) {
+                    matching.add(keys[i]);
+                }
+            }
+            return matching;
+        }
+    }
 
     static class Report {
+        static final List<String> UPDATED_HEADER = List.of("key", "field", "before", "after");
+        static final List<String> STATUS_HEADER = List.of("key", "status", "changed_fields");
+        /** Columns drawn from a fixed vocabulary: the field names in updated.csv and the statuses in status.csv. */
+        static final Set<String> UPDATED_CATEGORICAL = Set.of("field");
+        static final Set<String> STATUS_CATEGORICAL = Set.of("status");
+
         private final Roster previous;
         private final Roster current;
         private final List<String> keyColumns;
         private final String keyNormalize;
         private final String valueNormalize;
-        private final Set<String> added;
-        private final Set<String> removed;
+        private final DiffTotals totals;
+        private final Collection<String> added;
+        private final Collection<String> removed;
         private final List<Update> updates;
         private final int unchanged;
         private final Map<String, Integer> fieldChangeCounts;
@@ -415,38 +4144,43 @@ public class Main {
         private final Set<String> unknownIgnoredFields;
         private final Set<String> addedColumns;
         private final Set<String> removedColumns;
-        private final Set<String> unchangedKeys;
+        private final KeyClassification classification;
         private final List<String> combinedHeaderList;
         private final boolean summaryOnly;
         private final int detailLimit;
         private final LocalDateTime timestamp;
         private final int sharedCount;
 
+        /**
+         * {@code totals} carries the full counts; {@code added}, {@code removed} and {@code updates} hold the detail,
+         * which a streaming reconcile caps at the detail limit. The keys are sorted once, into {@link #classification},
+         * which every report section and exporter then walks; {@code updates} may arrive in any order.
+         */
         private Report(Roster previous, Roster current, List<String> keyColumns, String keyNormalize, String valueNormalize,
-                       Set<String> added, Set<String> removed, List<Update> updates, int unchanged,
-                       Map<String, Integer> fieldChangeCounts, Set<String> ignoredFields,
-                       Set<String> unknownIgnoredFields, Set<String> addedColumns, Set<String> removedColumns,
-                       Set<String> unchangedKeys, List<String> combinedHeaderList, boolean summaryOnly, int detailLimit) {
+                       DiffTotals totals, Collection<String> added, Collection<String> removed, List<Update> updates,
+                       Map<String, Integer> fieldChangeCounts, Set<String> ignoredFields, ColumnPlan columns,
+                       Collection<String> unchangedKeys, boolean summaryOnly, int detailLimit) {
             this.previous = previous;
             this.current = current;
             this.keyColumns = keyColumns;
             this.keyNormalize = keyNormalize;
             this.valueNormalize = valueNormalize;
+            this.totals = totals;
             this.added = added;
             this.removed = removed;
-            this.updates = updates;
-            this.unchanged = unchanged;
+            this.classification = KeyClassification.of(added, removed, updates, unchangedKeys);
+            this.updates = classification.updates();
+            this.unchanged = totals.unchanged();
             this.fieldChangeCounts = fieldChangeCounts;
             this.ignoredFields = ignoredFields;
-            this.unknownIgnoredFields = unknownIgnoredFields;
-            this.addedColumns = addedColumns;
-            this.removedColumns = removedColumns;
-            this.unchangedKeys = unchangedKeys;
-            this.combinedHeaderList = combinedHeaderList;
+            this.unknownIgnoredFields = columns.unknownIgnored();
+            this.addedColumns = columns.addedColumns();
+            this.removedColumns = columns.removedColumns();
+            this.combinedHeaderList = columns.combinedHeaderList();
             this.summaryOnly = summaryOnly;
             this.detailLimit = detailLimit;
             this.timestamp = LocalDateTime.now();
-            this.sharedCount = updates.size() + unchanged;
+            this.sharedCount = totals.updated() + totals.unchanged();
         }
 
         private String toText(String previousPath, String currentPath) {
@@ -462,23 +4196,23 @@ public class Main {
             sb.append("Timestamp: ").append(timestamp).append("\n\n");
 
             sb.append("Summary:\n");
-            sb.append("- total_previous: ").append(previous.rows.size()).append("\n");
-            sb.append("- total_current: ").append(current.rows.size()).append("\n");
-            sb.append("- added: ").append(added.size()).append("\n");
-            sb.append("- removed: ").append(removed.size()).append("\n");
-            sb.append("- updated: ").append(updates.size()).append("\n");
+            sb.append("- total_previous: ").append(totals.previous()).append("\n");
+            sb.append("- total_current: ").append(totals.current()).append("\n");
+            sb.append("- added: ").append(totals.added()).append("\n");
+            sb.append("- removed: ").append(totals.removed()).append("\n");
+            sb.append("- updated: ").append(totals.updated()).append("\n");
             sb.append("- unchanged: ").append(unchanged).append("\n");
             sb.append("- duplicate_keys_previous: ").append(previous.duplicates).append("\n");
             sb.append("- duplicate_keys_current: ").append(current.duplicates).append("\n");
             sb.append("- invalid_rows_previous: ").append(previous.invalid).append("\n");
             sb.append("- invalid_rows_current: ").append(current.invalid).append("\n");
-            sb.append("- net_change: ").append(current.rows.size() - previous.rows.size()).append("\n");
+            sb.append("- net_change: ").append(totals.current() - totals.previous()).append("\n");
             sb.append("- net_change_pct_previous: ")
-                    .append(formatPercent(current.rows.size() - previous.rows.size(), previous.rows.size()))
+                    .append(formatPercent(totals.current() - totals.previous(), totals.previous()))
                     .append("\n");
-            sb.append("- added_pct_current: ").append(formatPercent(added.size(), current.rows.size())).append("\n");
-            sb.append("- removed_pct_previous: ").append(formatPercent(removed.size(), previous.rows.size())).append("\n");
-            sb.append("- updated_pct_shared: ").append(formatPercent(updates.size(), sharedCount)).append("\n");
+            sb.append("- added_pct_current: ").append(formatPercent(totals.added(), totals.current())).append("\n");
+            sb.append("- removed_pct_previous: ").append(formatPercent(totals.removed(), totals.previous())).append("\n");
+            sb.append("- updated_pct_shared: ").append(formatPercent(totals.updated(), sharedCount)).append("\n");
             sb.append("- unchanged_pct_shared: ").append(formatPercent(unchanged, sharedCount)).append("\n\n");
 
             if (summaryOnly) {
@@ -565,34 +4299,34 @@ public class Main {
             }
 
             if (!added.isEmpty()) {
-                List<String> addedList = sortedList(added);
-                int shown = Math.min(addedList.size(), detailLimitValue());
-                sb.append("Added (" + addedList.size() + "):\n");
+                List<String> addedList = classification.keys(KeyClassification.ADDED, detailLimitValue());
+                int shown = addedList.size();
+                sb.append("Added (" + totals.added() + "):\n");
                 for (int i = 0; i < shown; i++) {
                     sb.append("  + ").append(addedList.get(i)).append("\n");
                 }
-                if (shown < addedList.size()) {
-                    sb.append("  ... (showing ").append(shown).append(" of ").append(addedList.size()).append(")\n");
+                if (shown < totals.added()) {
+                    sb.append("  ... (showing ").append(shown).append(" of ").append(totals.added()).append(")\n");
                 }
                 sb.append("\n");
             }
 
             if (!removed.isEmpty()) {
-                List<String> removedList = sortedList(removed);
-                int shown = Math.min(removedList.size(), detailLimitValue());
-                sb.append("Removed (" + removedList.size() + "):\n");
+                List<String> removedList = classification.keys(KeyClassification.REMOVED, detailLimitValue());
+                int shown = removedList.size();
+                sb.append("Removed (" + totals.removed() + "):\n");
                 for (int i = 0; i < shown; i++) {
                     sb.append("  - ").append(removedList.get(i)).append("\n");
                 }
-                if (shown < removedList.size()) {
-                    sb.append("  ... (showing ").append(shown).append(" of ").append(removedList.size()).append(")\n");
+                if (shown < totals.removed()) {
+                    sb.append("  ... (showing ").append(shown).append(" of ").append(totals.removed()).append(")\n");
                 }
                 sb.append("\n");
             }
 
             if (!updates.isEmpty()) {
                 int shown = Math.min(updates.size(), detailLimitValue());
-                sb.append("Updated (" + updates.size() + "):\n");
+                sb.append("Updated (" + totals.updated() + "):\n");
                 for (int i = 0; i < shown; i++) {
                     Update update = updates.get(i);
                     sb.append("  * ").append(update.key).append("\n");
@@ -605,8 +4339,8 @@ public class Main {
                                 .append("\"\n");
                     }
                 }
-                if (shown < updates.size()) {
-                    sb.append("  ... (showing ").append(shown).append(" of ").append(updates.size()).append(")\n");
+                if (shown < totals.updated()) {
+                    sb.append("  ... (showing ").append(shown).append(" of ").append(totals.updated()).append(")\n");
                 }
                 sb.append("\n");
             }
@@ -614,248 +4348,316 @@ public class Main {
             return sb.toString();
         }
 
-        private String toJson(String previousPath, String currentPath) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("{\n");
-            sb.append("  \"previous\": \"").append(escape(previousPath)).append("\",\n");
-            sb.append("  \"current\": \"").append(escape(currentPath)).append("\",\n");
-            sb.append("  \"key\": \"").append(escape(String.join(", ", keyColumns))).append("\",\n");
-            sb.append("  \"key_columns\": [\n");
-            sb.append(joinJsonArray(keyColumns, "    "));
-            sb.append("  ],\n");
-            sb.append("  \"key_normalize\": \"").append(escape(keyNormalize)).append("\",\n");
-            sb.append("  \"value_normalize\": \"").append(escape(valueNormalize)).append("\",\n");
-            sb.append("  \"ignored_fields\": [\n");
-            sb.append(joinJsonArray(ignoredFields));
-            sb.append("  ],\n");
-            sb.append("  \"unknown_ignored_fields\": [\n");
-            sb.append(joinJsonArray(unknownIgnoredFields));
-            sb.append("  ],\n");
-            sb.append("  \"timestamp\": \"").append(timestamp).append("\",\n");
-            sb.append("  \"summary_only\": ").append(summaryOnly).append(",\n");
-            sb.append("  \"detail\": {\n");
-            sb.append("    \"limit\": ").append(detailLimit <= 0 ? "null" : detailLimit).append(",\n");
-            sb.append("    \"truncated\": {\n");
-            sb.append("      \"added\": ").append(isTruncated(added.size())).append(",\n");
-            sb.append("      \"removed\": ").append(isTruncated(removed.size())).append(",\n");
-            sb.append("      \"updated\": ").append(isTruncated(updates.size())).append("\n");
-            sb.append("    }\n");
-            sb.append("  },\n");
-            sb.append("  \"summary\": {\n");
-            sb.append("    \"total_previous\": ").append(previous.rows.size()).append(",\n");
-            sb.append("    \"total_current\": ").append(current.rows.size()).append(",\n");
-            sb.append("    \"added\": ").append(added.size()).append(",\n");
-            sb.append("    \"removed\": ").append(removed.size()).append(",\n");
-            sb.append("    \"updated\": ").append(updates.size()).append(",\n");
-            sb.append("    \"unchanged\": ").append(unchanged).append(",\n");
-            sb.append("    \"duplicate_keys_previous\": ").append(previous.duplicates).append(",\n");
-            sb.append("    \"duplicate_keys_current\": ").append(current.duplicates).append(",\n");
-            sb.append("    \"invalid_rows_previous\": ").append(previous.invalid).append(",\n");
-            sb.append("    \"invalid_rows_current\": ").append(current.invalid).append(",\n");
-            sb.append("    \"net_change\": ").append(current.rows.size() - previous.rows.size()).append(",\n");
-            sb.append("    \"net_change_pct_previous\": ")
-                    .append(formatRatio(current.rows.size() - previous.rows.size(), previous.rows.size()))
+        /**
+         * Streams the JSON report to {@code output} section by section (gzip-compressed for a {@code .gz} path), so
+         * full added/removed/updated detail is written without building the document in memory.
+         */
+        void writeJson(Path output, String previousPath, String currentPath) throws IOException {
+            try (JsonOutput out = new JsonOutput(new BufferedWriter(
+                    new OutputStreamWriter(Compression.openOutput(output), StandardCharsets.UTF_8), READ_BUFFER_SIZE))) {
+                writeJson(out, previousPath, currentPath);
+            }
+        }
+
+        private void writeJson(JsonOutput out, String previousPath, String currentPath) throws IOException {
+            out.append("{\n");
+            out.append("  \"previous\": \"").append(escape(previousPath)).append("\",\n");
+            out.append("  \"current\": \"").append(escape(currentPath)).append("\",\n");
+            out.append("  \"key\": \"").append(escape(String.join(", ", keyColumns))).append("\",\n");
+            out.append("  \"key_columns\": [\n");
+            writeJsonArray(out, keyColumns, "    ");
+            out.append("  ],\n");
+            out.append("  \"key_normalize\": \"").append(escape(keyNormalize)).append("\",\n");
+            out.append("  \"value_normalize\": \"").append(escape(valueNormalize)).append("\",\n");
+            out.append("  \"ignored_fields\": [\n");
+            writeJsonArray(out, ignoredFields);
+            out.append("  ],\n");
+            out.append("  \"unknown_ignored_fields\": [\n");
+            writeJsonArray(out, unknownIgnoredFields);
+            out.append("  ],\n");
+            out.append("  \"timestamp\": \"").append(timestamp).append("\",\n");
+            out.append("  \"summary_only\": ").append(summaryOnly).append(",\n");
+            out.append("  \"detail\": {\n");
+            out.append("    \"limit\": ").append(detailLimit <= 0 ? "null" : detailLimit).append(",\n");
+            out.append("    \"truncated\": {\n");
+            out.append("      \"added\": ").append(isTruncated(totals.added())).append(",\n");
+            out.append("      \"removed\": ").append(isTruncated(totals.removed())).append(",\n");
+            out.append("      \"updated\": ").append(isTruncated(totals.updated())).append("\n");
+            out.append("    }\n");
+            out.append("  },\n");
+            out.append("  \"summary\": {\n");
+            out.append("    \"total_previous\": ").append(totals.previous()).append(",\n");
+            out.append("    \"total_current\": ").append(totals.current()).append(",\n");
+            out.append("    \"added\": ").append(totals.added()).append(",\n");
+            out.append("    \"removed\": ").append(totals.removed()).append(",\n");
+            out.append("    \"updated\": ").append(totals.updated()).append(",\n");
+            out.append("    \"unchanged\": ").append(unchanged).append(",\n");
+            out.append("    \"duplicate_keys_previous\": ").append(previous.duplicates).append(",\n");
+            out.append("    \"duplicate_keys_current\": ").append(current.duplicates).append(",\n");
+            out.append("    \"invalid_rows_previous\": ").append(previous.invalid).append(",\n");
+            out.append("    \"invalid_rows_current\": ").append(current.invalid).append(",\n");
+            out.append("    \"net_change\": ").append(totals.current() - totals.previous()).append(",\n");
+            out.append("    \"net_change_pct_previous\": ")
+                    .append(formatRatio(totals.current() - totals.previous(), totals.previous()))
                     .append("\n");
-            sb.append("  },\n");
-            sb.append("  \"change_rates\": {\n");
-            sb.append("    \"added_of_current\": ").append(formatRatio(added.size(), current.rows.size())).append(",\n");
-            sb.append("    \"removed_of_previous\": ").append(formatRatio(removed.size(), previous.rows.size())).append(",\n");
-            sb.append("    \"updated_of_shared\": ").append(formatRatio(updates.size(), sharedCount)).append(",\n");
-            sb.append("    \"unchanged_of_shared\": ").append(formatRatio(unchanged, sharedCount)).append("\n");
-            sb.append("  },\n");
-            sb.append("  \"column_changes\": {\n");
-            sb.append("    \"added\": [\n");
-            sb.append(joinJsonArray(addedColumns));
-            sb.append("    ],\n");
-            sb.append("    \"removed\": [\n");
-            sb.append(joinJsonArray(removedColumns));
-            sb.append("    ]\n");
-            sb.append("  },\n");
-            sb.append("  \"field_change_counts\": {\n");
-            sb.append(joinJsonMap(fieldChangeCounts));
-            sb.append("  },\n");
-            sb.append("  \"duplicate_key_values\": {\n");
-            sb.append("    \"previous\": [\n");
-            sb.append(joinJsonArray(previous.duplicateKeys));
-            sb.append("    ],\n");
-            sb.append("    \"current\": [\n");
-            sb.append(joinJsonArray(current.duplicateKeys));
-            sb.append("    ]\n");
-            sb.append("  },\n");
-            sb.append("  \"missing_key_counts\": {\n");
-            sb.append("    \"previous\": {\n");
-            sb.append(joinJsonMap(previous.missingKeyCounts, "      "));
-            sb.append("    },\n");
-            sb.append("    \"current\": {\n");
-            sb.append(joinJsonMap(current.missingKeyCounts, "      "));
-            sb.append("    }\n");
-            sb.append("  },\n");
-            sb.append("  \"invalid_rows\": {\n");
-            sb.append("    \"previous\": [\n");
-            sb.append(joinJsonIntArray(previous.invalidRows));
-            sb.append("    ],\n");
-            sb.append("    \"current\": [\n");
-            sb.append(joinJsonIntArray(current.invalidRows));
-            sb.append("    ]\n");
-            sb.append("  },\n");
-            sb.append("  \"field_completeness\": {\n");
-            sb.append("    \"previous\": {\n");
-            sb.append(joinCompletenessJson(previous, "      "));
-            sb.append("    },\n");
-            sb.append("    \"current\": {\n");
-            sb.append(joinCompletenessJson(current, "      "));
-            sb.append("    }\n");
-            sb.append("  },\n");
-            sb.append("  \"added\": [\n");
-            sb.append(joinJsonArray(sortedList(added), "    ", detailLimitValue()));
-            sb.append("  ],\n");
-            sb.append("  \"removed\": [\n");
-            sb.append(joinJsonArray(sortedList(removed), "    ", detailLimitValue()));
-            sb.append("  ],\n");
-            sb.append("  \"updated\": [\n");
+            out.append("  },\n");
+            out.append("  \"change_rates\": {\n");
+            out.append("    \"added_of_current\": ").append(formatRatio(totals.added(), totals.current())).append(",\n");
+            out.append("    \"removed_of_previous\": ").append(formatRatio(totals.removed(), totals.previous())).append(",\n");
+            out.append("    \"updated_of_shared\": ").append(formatRatio(totals.updated(), sharedCount)).append(",\n");
+            out.append("    \"unchanged_of_shared\": ").append(formatRatio(unchanged, sharedCount)).append("\n");
+            out.append("  },\n");
+            out.append("  \"column_changes\": {\n");
+            out.append("    \"added\": [\n");
+            writeJsonArray(out, addedColumns);
+            out.append("    ],\n");
+            out.append("    \"removed\": [\n");
+            writeJsonArray(out, removedColumns);
+            out.append("    ]\n");
+            out.append("  },\n");
+            out.append("  \"field_change_counts\": {\n");
+            out.append(joinJsonMap(fieldChangeCounts));
+            out.append("  },\n");
+            out.append("  \"duplicate_key_values\": {\n");
+            out.append("    \"previous\": [\n");
+            writeJsonArray(out, previous.duplicateKeys);
+            out.append("    ],\n");
+            out.append("    \"current\": [\n");
+            writeJsonArray(out, current.duplicateKeys);
+            out.append("    ]\n");
+            out.append("  },\n");
+            out.append("  \"missing_key_counts\": {\n");
+            out.append("    \"previous\": {\n");
+            out.append(joinJsonMap(previous.missingKeyCounts, "      "));
+            out.append("    },\n");
+            out.append("    \"current\": {\n");
+            out.append(joinJsonMap(current.missingKeyCounts, "      "));
+            out.append("    }\n");
+            out.append("  },\n");
+            out.append("  \"invalid_rows\": {\n");
+            out.append("    \"previous\": [\n");
+            writeJsonIntArray(out, previous.invalidRows);
+            out.append("    ],\n");
+            out.append("    \"current\": [\n");
+            writeJsonIntArray(out, current.invalidRows);
+            out.append("    ]\n");
+            out.append("  },\n");
+            out.append("  \"field_completeness\": {\n");
+            out.append("    \"previous\": {\n");
+            out.append(joinCompletenessJson(previous, "      "));
+            out.append("    },\n");
+            out.append("    \"current\": {\n");
+            out.append(joinCompletenessJson(current, "      "));
+            out.append("    }\n");
+            out.append("  },\n");
+            out.append("  \"added\": [\n");
+            writeJsonArray(out, classification.keys(KeyClassification.ADDED, detailLimitValue()), "    ");
+            out.append("  ],\n");
+            out.append("  \"removed\": [\n");
+            writeJsonArray(out, classification.keys(KeyClassification.REMOVED, detailLimitValue()), "    ");
+            out.append("  ],\n");
+            out.append("  \"updated\": [\n");
             int updatedShown = Math.min(updates.size(), detailLimitValue());
             for (int i = 0; i < updatedShown; i++) {
                 Update update = updates.get(i);
-                sb.append("    {\n");
-                sb.append("      \"key\": \"").append(escape(update.key)).append("\",\n");
-                sb.append("      \"changes\": {");
+                out.append("    {\n");
+                out.append("      \"key\": \"").append(escape(update.key)).append("\",\n");
+                out.append("      \"changes\": {");
                 int j = 0;
                 for (Map.Entry<String, Change> entry : update.changes.entrySet()) {
-                    sb.append("\n        \"").append(escape(entry.getKey())).append("\": {")
+                    out.append("\n        \"").append(escape(entry.getKey())).append("\": {")
                             .append("\"before\": \"").append(escape(entry.getValue().before)).append("\", ")
                             .append("\"after\": \"").append(escape(entry.getValue().after)).append("\"}");
                     if (j < update.changes.size() - 1) {
-                        sb.append(",");
+                        out.append(",");
                     }
                     j++;
                 }
                 if (!update.changes.isEmpty()) {
-                    sb.append("\n      }");
+                    out.append("\n      }");
                 } else {
-                    sb.append("}");
+                    out.append("}");
                 }
-                sb.append("\n    }");
+                out.append("\n    }");
                 if (i < updatedShown - 1) {
-                    sb.append(",");
+                    out.append(",");
                 }
-                sb.append("\n");
+                out.append("\n");
+            }
+            out.append("  ]\n");
+            out.append("}\n");
+        }
+
+        /** Minimal append-only sink for {@link #writeJson}; numbers and booleans are written via {@code valueOf}. */
+        private static final class JsonOutput implements Closeable {
+            private final Writer writer;
+
+            JsonOutput(Writer writer) {
+                this.writer = writer;
+            }
+
+            JsonOutput append(String value) throws IOException {
+                writer.write(value);
+                return this;
+            }
+
+            JsonOutput append(Object value) throws IOException {
+                writer.write(String.valueOf(value));
+                return this;
+            }
+
+            @Override
+            public void close() throws IOException {
+                writer.close();
             }
-            sb.append("  ]\n");
-            sb.append("}\n");
-            return sb.toString();
         }
 
+        /** Replays every classified key into the listener in key order. */
+        void replay(DiffListener listener) throws IOException {
+            listener.begin(previous.header, current.header, combinedHeaderList);
+            for (int i = 0; i < classification.size(); i++) {
+                String key = classification.key(i);
+                switch (classification.status(i)) {
+                    case KeyClassification.ADDED -> listener.added(key, current.rows.row(current.rows.ordinal(key)));
+                    case KeyClassification.REMOVED ->
+                            listener.removed(key, previous.rows.row(previous.rows.ordinal(key)));
+                    case KeyClassification.UPDATED -> listener.updated(updates.get(classification.updateIndex(i)),
+                            previous.rows.row(previous.rows.ordinal(key)), current.rows.row(current.rows.ordinal(key)));
+                    default -> listener.unchanged(key, current.rows.row(current.rows.ordinal(key)));
+                }
+            }
+            listener.finish();
+        }
+
+        /**
+         * Writes the export bundle. Each file is streamed through a {@link CsvWriter} rather than collected in memory;
+         * with {@code parallel} ({@code --parallel-export}) the independent files are written on separate threads.
+         */
         private void writeExports(Path exportDir, boolean includeUnchanged, boolean includeUpdatedRows,
-                                  boolean includeStatus) throws IOException {
+                                  boolean includeStatus, boolean parallel, ExportFormat format) throws IOException {
             Files.createDirectories(exportDir);
-            writeRosterExport(exportDir.resolve("added.csv"), current.header, added, current.rows);
-            writeRosterExport(exportDir.resolve("removed.csv"), previous.header, removed, previous.rows);
-            writeUpdatedExport(exportDir.resolve("updated.csv"));
+            List<ExportWriter> exports = new ArrayList<>();
+            exports.add(() -> writeRosterExport(format, exportDir, "added", KeyClassification.ADDED, current.rows));
+            exports.add(() -> writeRosterExport(format, exportDir, "removed", KeyClassification.REMOVED, previous.rows));
+            exports.add(() -> writeUpdatedExport(format, exportDir));
             if (includeUnchanged) {
-                writeRosterExport(exportDir.resolve("unchanged.csv"), current.header, unchangedKeys, current.rows);
+                exports.add(() -> writeRosterExport(format, exportDir, "unchanged", KeyClassification.UNCHANGED,
+                        current.rows));
             }
             if (includeUpdatedRows) {
-                writeUpdatedRowsExport(exportDir.resolve("updated_rows.csv"));
+                exports.add(() -> writeUpdatedRowsExport(format, exportDir));
             }
             if (includeStatus) {
-                writeStatusExport(exportDir.resolve("status.csv"));
+                exports.add(() -> writeStatusExport(format, exportDir));
             }
-        }
 
-        private void writeRosterExport(Path output, List<String> header, Set<String> keys, Map<String, Map<String, String>> rows)
-                throws IOException {
-            List<String> lines = new ArrayList<>();
-            lines.add(joinCsvLine(header));
-            List<String> sortedKeys = new ArrayList<>(keys);
-            sortedKeys.sort(String::compareTo);
-            for (String keyValue : sortedKeys) {
-                Map<String, String> row = rows.get(keyValue);
-                if (row == null) {
-                    continue;
+            if (!parallel) {
+                for (ExportWriter export : exports) {
+                    export.write();
+                }
+                return;
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(exports.size());
+            try {
+                List<Future<Void>> futures = new ArrayList<>();
+                for (ExportWriter export : exports) {
+                    futures.add(executor.submit(() -> {
+                        export.write();
+                        return null;
+                    }));
                 }
-                List<String> values = new ArrayList<>();
-                for (String field : header) {
-                    values.add(row.getOrDefault(field, ""));
+                for (Future<Void> future : futures) {
+                    await(future);
                 }
-                lines.add(joinCsvLine(values));
+            } finally {
+                executor.shutdownNow();
             }
-            Files.write(output, lines, StandardCharsets.UTF_8);
         }
 
-        private void writeUpdatedExport(Path output) throws IOException {
-            List<String> lines = new ArrayList<>();
-            List<String> header = List.of("key", "field", "before", "after");
-            lines.add(joinCsvLine(header));
-            for (Update update : updates) {
-                for (Map.Entry<String, Change> entry : update.changes.entrySet()) {
-                    List<String> values = List.of(update.key, entry.getKey(), entry.getValue().before, entry.getValue().after);
-                    lines.add(joinCsvLine(values));
-                }
-            }
-            Files.write(output, lines, StandardCharsets.UTF_8);
+        private interface ExportWriter {
+            void write() throws IOException;
         }
 
-        private void writeUpdatedRowsExport(Path output) throws IOException {
-            List<String> lines = new ArrayList<>();
-            List<String> header = new ArrayList<>();
-            header.add("key");
-            for (String field : combinedHeaderList) {
-                header.add(field + "_before");
-                header.add(field + "_after");
+        private void writeRosterExport(ExportFormat format, Path exportDir, String baseName, byte status,
+                                       RosterTable rows) throws IOException {
+            List<String> header = rows.header();
+            int[] columns = new int[header.size()];
+            for (int i = 0; i < header.size(); i++) {
+                columns[i] = rows.columnIndex(header.get(i));
             }
-            lines.add(joinCsvLine(header));
-            for (Update update : updates) {
-                Map<String, String> prevRow = previous.rows.get(update.key);
-                Map<String, String> curRow = current.rows.get(update.key);
-                if (prevRow == null || curRow == null) {
-                    continue;
-                }
-                List<String> values = new ArrayList<>();
-                values.add(update.key);
-                for (String field : combinedHeaderList) {
-                    values.add(prevRow.getOrDefault(field, ""));
-                    values.add(curRow.getOrDefault(field, ""));
+            try (RecordWriter writer = format.open(exportDir, baseName, header, Set.of())) {
+                for (int i = 0; i < classification.size(); i++) {
+                    if (classification.status(i) != status) {
+                        continue;
+                    }
+                    int ordinal = rows.ordinal(classification.key(i));
+                    if (ordinal < 0) {
+                        continue;
+                    }
+                    for (int column : columns) {
+                        writer.field(rows.value(ordinal, column));
+                    }
+                    writer.endRecord();
                 }
-                lines.add(joinCsvLine(values));
             }
-            Files.write(output, lines, StandardCharsets.UTF_8);
         }
 
-        private void writeStatusExport(Path output) throws IOException {
-            List<String> lines = new ArrayList<>();
-            List<String> header = List.of("key", "status", "changed_fields");
-            lines.add(joinCsvLine(header));
-
-            Map<String, String> status = new LinkedHashMap<>();
-            Map<String, String> changedFields = new LinkedHashMap<>();
-            for (String key : added) {
-                status.put(key, "added");
-                changedFields.put(key, "");
+        private void writeUpdatedExport(ExportFormat format, Path exportDir) throws IOException {
+            try (RecordWriter writer = format.open(exportDir, "updated", UPDATED_HEADER, UPDATED_CATEGORICAL)) {
+                for (Update update : updates) {
+                    for (Map.Entry<String, Change> entry : update.changes.entrySet()) {
+                        writer.field(update.key).field(entry.getKey()).field(entry.getValue().before)
+                                .field(entry.getValue().after).endRecord();
+                    }
+                }
             }
-            for (String key : removed) {
-                status.put(key, "removed");
-                changedFields.put(key, "");
+        }
+
+        private void writeUpdatedRowsExport(ExportFormat format, Path exportDir) throws IOException {
+            List<String> header = new ArrayList<>();
+            header.add("key");
+            for (String field : combinedHeaderList) {
+                header.add(field + "_before");
+                header.add(field + "_after");
             }
-            for (Update update : updates) {
-                status.put(update.key, "updated");
-                changedFields.put(update.key, String.join(";", update.changes.keySet()));
+            int[] prevColumns = new int[combinedHeaderList.size()];
+            int[] curColumns = new int[combinedHeaderList.size()];
+            for (int i = 0; i < combinedHeaderList.size(); i++) {
+                prevColumns[i] = previous.rows.columnIndex(combinedHeaderList.get(i));
+                curColumns[i] = current.rows.columnIndex(combinedHeaderList.get(i));
             }
-            for (String key : unchangedKeys) {
-                status.put(key, "unchanged");
-                changedFields.put(key, "");
+            try (RecordWriter writer = format.open(exportDir, "updated_rows", header, Set.of())) {
+                for (Update update : updates) {
+                    int prevOrdinal = previous.rows.ordinal(update.key);
+                    int curOrdinal = current.rows.ordinal(update.key);
+                    if (prevOrdinal < 0 || curOrdinal < 0) {
+                        continue;
+                    }
+                    writer.field(update.key);
+                    for (int i = 0; i < combinedHeaderList.size(); i++) {
+                        writer.field(previous.rows.value(prevOrdinal, prevColumns[i]));
+                        writer.field(current.rows.value(curOrdinal, curColumns[i]));
+                    }
+                    writer.endRecord();
+                }
             }
+        }
 
-            List<String> keys = new ArrayList<>(status.keySet());
-            keys.sort(String::compareTo);
-            for (String key : keys) {
-                List<String> values = List.of(key, status.get(key), changedFields.getOrDefault(key, ""));
-                lines.add(joinCsvLine(values));
+        /** One line per key, in the classification's key order. */
+        private void writeStatusExport(ExportFormat format, Path exportDir) throws IOException {
+            try (RecordWriter writer = format.open(exportDir, "status", STATUS_HEADER, STATUS_CATEGORICAL)) {
+                for (int i = 0; i < classification.size(); i++) {
+                    byte status = classification.status(i);
+                    writer.field(classification.key(i)).field(KeyClassification.statusName(status));
+                    writer.field(status == KeyClassification.UPDATED
+                            ? String.join(";", updates.get(classification.updateIndex(i)).changes.keySet())
+                            : "");
+                    writer.endRecord();
+                }
             }
-
-            Files.write(output, lines, StandardCharsets.UTF_8);
         }
 
-        private String joinCsvLine(List<String> values) {
+        private static String joinCsvLine(List<String> values) {
             StringBuilder sb = new StringBuilder();
             for (int i = 0; i < values.size(); i++) {
                 sb.append(escapeCsv(values.get(i)));
@@ -866,7 +4668,7 @@ public class Main {
             return sb.toString();
         }
 
-        private String escapeCsv(String value) {
+        private static String escapeCsv(String value) {
             if (value == null) {
                 return "";
             }
@@ -878,47 +4680,19 @@ public class Main {
             return escaped;
         }
 
-        private String joinJsonArray(Set<String> values) {
-            StringBuilder sb = new StringBuilder();
-            List<String> sorted = new ArrayList<>(values);
-            sorted.sort(String::compareTo);
-            for (int i = 0; i < sorted.size(); i++) {
-                sb.append("    \"").append(escape(sorted.get(i))).append("\"");
-                if (i < sorted.size() - 1) {
-                    sb.append(",");
-                }
-                sb.append("\n");
-            }
-            return sb.toString();
+        private void writeJsonArray(JsonOutput out, Set<String> values) throws IOException {
+            writeJsonArray(out, sortedList(values), "    ");
         }
 
-        private String joinJsonArray(List<String> values) {
-            return joinJsonArray(values, "      ");
+        private void writeJsonArray(JsonOutput out, List<String> values) throws IOException {
+            writeJsonArray(out, values, "      ");
         }
 
-        private String joinJsonArray(List<String> values, String indent) {
-            StringBuilder sb = new StringBuilder();
+        private void writeJsonArray(JsonOutput out, List<String> values, String indent) throws IOException {
             for (int i = 0; i < values.size(); i++) {
-                sb.append(indent).append("\"").append(escape(values.get(i))).append("\"");
-                if (i < values.size() - 1) {
-                    sb.append(",");
-                }
-                sb.append("\n");
-            }
-            return sb.toString();
-        }
-
-        private String joinJsonArray(List<String> values, String indent, int limit) {
-            StringBuilder sb = new StringBuilder();
-            int shown = Math.min(values.size(), limit);
-            for (int i = 0; i < shown; i++) {
-                sb.append(indent).append("\"").append(escape(values.get(i))).append("\"");
-                if (i < shown - 1) {
-                    sb.append(",");
-                }
-                sb.append("\n");
+                out.append(indent).append("\"").append(escape(values.get(i)))
+                        .append(i < values.size() - 1 ? "\",\n" : "\"\n");
             }
-            return sb.toString();
         }
 
         private List<String> sortedList(Set<String> values) {
@@ -935,16 +4709,10 @@ public class Main {
             return detailLimit > 0 ? detailLimit : Integer.MAX_VALUE;
         }
 
-        private String joinJsonIntArray(List<Integer> values) {
-            StringBuilder sb = new StringBuilder();
+        private void writeJsonIntArray(JsonOutput out, List<Integer> values) throws IOException {
             for (int i = 0; i < values.size(); i++) {
-                sb.append("      ").append(values.get(i));
-                if (i < values.size() - 1) {
-                    sb.append(",");
-                }
-                sb.append("\n");
+                out.append("      ").append(values.get(i)).append(i < values.size() - 1 ? ",\n" : "\n");
             }
-            return sb.toString();
         }
 
         private String joinJsonMap(Map<String, Integer> values) {
@@ -1081,350 +4849,237 @@ public class Main {
     record DbRunOptions(String exportDir, boolean exportUnchanged, boolean exportUpdatedRows,
                         boolean exportStatus, String jsonPath) {}
 
+    /** How child-table rows reach the database: JDBC batches of {@code batchSize} rows, or COPY when available. */
+    record DbWriteOptions(int batchSize, boolean copy) {
+        static final int DEFAULT_BATCH_SIZE = 1000;
+    }
+
     static class DbLogger {
-        private static final String ENV_HOST = "GS_DB_HOST";
-        private static final String ENV_PORT = "GS_DB_PORT";
-        private static final String ENV_NAME = "GS_DB_NAME";
-        private static final String ENV_USER = "GS_DB_USER";
-        private static final String ENV_PASSWORD = "GS_DB_PASSWORD";
-        private static final String ENV_SSLMODE = "GS_DB_SSLMODE";
+        private static final List<BulkColumn> FIELD_CHANGE_COLUMNS = List.of(
+                new BulkColumn("run_id", Types.OTHER),
+                new BulkColumn("field_name", Types.VARCHAR),
+                new BulkColumn("change_count", Types.INTEGER));
+        private static final List<BulkColumn> MISSING_KEY_COLUMNS = List.of(
+                new BulkColumn("run_id", Types.OTHER),
+                new BulkColumn("roster_side", Types.VARCHAR),
+                new BulkColumn("key_column", Types.VARCHAR),
+                new BulkColumn("missing_count", Types.INTEGER));
+        private static final List<BulkColumn> COMPLETENESS_COLUMNS = List.of(
+                new BulkColumn("run_id", Types.OTHER),
+                new BulkColumn("roster_side", Types.VARCHAR),
+                new BulkColumn("field_name", Types.VARCHAR),
+                new BulkColumn("non_empty", Types.INTEGER),
+                new BulkColumn("total_rows", Types.INTEGER),
+                new BulkColumn("pct", Types.NUMERIC));
 
         static void logRun(Report report, String previousPath, String currentPath, String app, String schema,
-                           List<String> keyColumns, String keyNormalize, String valueNormalize,
-                           boolean summaryOnly, int detailLimit, DbRunOptions runOptions,
-                           Instant startedAt, Instant finishedAt) throws IOException {
-            DbConfig config = DbConfig.fromEnv();
-            String url = buildJdbcUrl(config);
-            long durationMs = Duration.between(startedAt, finishedAt).toMillis();
-            int totalPrevious = report.previous.rows.size();
-            int totalCurrent = report.current.rows.size();
-            int added = report.added.size();
-            int removed = report.removed.size();
-            int updated = report.updates.size();
-            int unchanged = report.unchanged;
-            int sharedCount = updated + unchanged;
-            int netChange = totalCurrent - totalPrevious;
-
-            Double netChangePctPrevious = percentValue(netChange, totalPrevious);
-            Double addedPctCurrent = percentValue(added, totalCurrent);
-            Double removedPctPrevious = percentValue(removed, totalPrevious);
-            Double updatedPctShared = percentValue(updated, sharedCount);
-            Double unchangedPctShared = percentValue(unchanged, sharedCount);
-
-            String fieldChangeJson = toJsonMap(report.fieldChangeCounts);
-            String missingKeyPrevJson = toJsonMap(report.previous.missingKeyCounts);
-            String missingKeyCurJson = toJsonMap(report.current.missingKeyCounts);
-            String completenessPrevJson = toJsonCompleteness(report.previous);
-            String completenessCurJson = toJsonCompleteness(report.current);
-
-            try {
-                Class.forName("org.postgresql.Driver");
-            } catch (ClassNotFoundException e) {
-                throw new IOException("PostgreSQL JDBC driver not found. Add the driver JAR to the classpath to use --db-log.", e);
-            }
-
-            try (Connection connection = DriverManager.getConnection(url, config.user(), config.password())) {
-                connection.setAutoCommit(false);
+                           List<String> keyColumns, String keyNormalize, String valueNormalize, boolean summaryOnly,
+                           int detailLimit, DbRunOptions runOptions, DbWriteOptions writeOptions,
+                           DbChangeLog changeLog, Instant startedAt, Instant finishedAt) throws IOException {
+            UUID runId = UUID.randomUUID();
+            try (Connection connection = connect()) {
                 ensureSchema(connection, schema);
-                ensureTable(connection, schema);
-
-                String sql = "INSERT INTO " + schema + ".roster_runs (" +
-                        "id, app, previous_path, current_path, key_columns, key_normalize, value_normalize, summary_only," +
-                        "detail_limit, export_dir, export_unchanged, export_updated_rows, export_status, json_path," +
-                        "started_at, finished_at, duration_ms, total_previous, total_current, added, removed, updated," +
-                        "unchanged, duplicate_previous, duplicate_current, invalid_previous, invalid_current, net_change," +
-                        "net_change_pct_previous, added_pct_current, removed_pct_previous, updated_pct_shared, unchanged_pct_shared," +
-                        "field_change_counts, missing_key_counts_previous, missing_key_counts_current, completeness_previous, completeness_current" +
-                        ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
-
-                try (PreparedStatement ps = connection.prepareStatement(sql)) {
-                    int i = 1;
-                    ps.setObject(i++, UUID.randomUUID());
-                    ps.setString(i++, app);
-                    ps.setString(i++, previousPath);
-                    ps.setString(i++, currentPath);
-                    ps.setArray(i++, connection.createArrayOf("text", keyColumns.toArray()));
-                    ps.setString(i++, keyNormalize);
-                    ps.setString(i++, valueNormalize);
-                    ps.setBoolean(i++, summaryOnly);
-                    if (detailLimit <= 0) {
-                        ps.setNull(i++, java.sql.Types.INTEGER);
-                    } else {
-                        ps.setInt(i++, detailLimit);
-                    }
-                    ps.setString(i++, runOptions.exportDir());
-                    ps.setBoolean(i++, runOptions.exportUnchanged());
-                    ps.setBoolean(i++, runOptions.exportUpdatedRows());
-                    ps.setBoolean(i++, runOptions.exportStatus());
-                    ps.setString(i++, runOptions.jsonPath());
-                    ps.setObject(i++, java.sql.Timestamp.from(startedAt));
-                    ps.setObject(i++, java.sql.Timestamp.from(finishedAt));
-                    ps.setLong(i++, durationMs);
-                    ps.setInt(i++, totalPrevious);
-                    ps.setInt(i++, totalCurrent);
-                    ps.setInt(i++, added);
-                    ps.setInt(i++, removed);
-                    ps.setInt(i++, updated);
-                    ps.setInt(i++, unchanged);
-                    ps.setInt(i++, report.previous.duplicates);
-                    ps.setInt(i++, report.current.duplicates);
-                    ps.setInt(i++, report.previous.invalid);
-                    ps.setInt(i++, report.current.invalid);
-                    ps.setInt(i++, netChange);
-                    setNullableDouble(ps, i++, netChangePctPrevious);
-                    setNullableDouble(ps, i++, addedPctCurrent);
-                    setNullableDouble(ps, i++, removedPctPrevious);
-                    setNullableDouble(ps, i++, updatedPctShared);
-                    setNullableDouble(ps, i++, unchangedPctShared);
-                    ps.setObject(i++, fieldChangeJson, java.sql.Types.OTHER);
-                    ps.setObject(i++, missingKeyPrevJson, java.sql.Types.OTHER);
-                    ps.setObject(i++, missingKeyCurJson, java.sql.Types.OTHER);
-                    ps.setObject(i++, completenessPrevJson, java.sql.Types.OTHER);
-                    ps.setObject(i++, completenessCurJson, java.sql.Types.OTHER);
-                    ps.executeUpdate();
+                if (changeLog != null) {
+                    ensureChangePartition(connection, schema, startedAt);
+                }
+                connection.setAutoCommit(false);
+                insertRun(connection, schema, runId, report, previousPath, currentPath, app, keyColumns, keyNormalize,
+                        valueNormalize, summaryOnly, detailLimit, runOptions, startedAt, finishedAt);
+                insertFieldChangeCounts(connection, schema, runId, report.fieldChangeCounts, writeOptions);
+                insertMissingKeyCounts(connection, schema, runId, "previous", report.previous.missingKeyCounts,
+                        writeOptions);
+                insertMissingKeyCounts(connection, schema, runId, "current", report.current.missingKeyCounts,
+                        writeOptions);
+                insertFieldCompleteness(connection, schema, runId, "previous", report.previous, writeOptions);
+                insertFieldCompleteness(connection, schema, runId, "current", report.current, writeOptions);
+                if (changeLog != null) {
+                    changeLog.load(connection, schema, runId, startedAt, writeOptions);
                 }
-
                 connection.commit();
             } catch (SQLException e) {
-                throw new IOException("DB log failed: " + e.getMessage(), e);
-            }
-        }
-
-        private static void ensureSchema(Connection connection, String schema) throws SQLException {
-            try (Statement statement = connection.createStatement()) {
-                statement.execute("CREATE SCHEMA IF NOT EXISTS " + schema);
-            }
-        }
-
-        private static void ensureTable(Connection connection, String schema) throws SQLException {
-            String sql = "CREATE TABLE IF NOT EXISTS " + schema + ".roster_runs (" +
-                    "id uuid PRIMARY KEY," +
-                    "app text NOT NULL," +
-                    "previous_path text NOT NULL," +
-                    "current_path text NOT NULL," +
-                    "key_columns text[] NOT NULL," +
-                    "key_normalize text NOT NULL," +
-                    "value_normalize text NOT NULL," +
-                    "summary_only boolean NOT NULL," +
-                    "detail_limit integer," +
-                    "export_dir text," +
-                    "export_unchanged boolean NOT NULL," +
-                    "export_updated_rows boolean NOT NULL," +
-                    "export_status boolean NOT NULL," +
-                    "json_path text," +
-                    "started_at timestamptz NOT NULL," +
-                    "finished_at timestamptz NOT NULL," +
-                    "duration_ms integer NOT NULL," +
-                    "total_previous integer NOT NULL," +
-                    "total_current integer NOT NULL," +
-                    "added integer NOT NULL," +
-                    "removed integer NOT NULL," +
-                    "updated integer NOT NULL," +
-                    "unchanged integer NOT NULL," +
-                    "duplicate_previous integer NOT NULL," +
-                    "duplicate_current integer NOT NULL," +
-                    "invalid_previous integer NOT NULL," +
-                    "invalid_current integer NOT NULL," +
-                    "net_change integer NOT NULL," +
-                    "net_change_pct_previous numeric," +
-                    "added_pct_current numeric," +
-                    "removed_pct_previous numeric," +
-                    "updated_pct_shared numeric," +
-                    "unchanged_pct_shared numeric," +
-                    "field_change_counts jsonb," +
-                    "missing_key_counts_previous jsonb," +
-                    "missing_key_counts_current jsonb," +
-                    "completeness_previous jsonb," +
-                    "completeness_current jsonb," +
-                    "created_at timestamptz NOT NULL DEFAULT now()" +
-                    ")";
-            try (Statement statement = connection.createStatement()) {
-                statement.execute(sql);
-            }
-        }
-
-        private static String buildJdbcUrl(DbConfig config) {
-            return "jdbc:postgresql://" + config.host() + ":" + config.port() + "/" + config.name() +
-                    "?sslmode=" + config.sslMode();
-        }
-
-        private static void setNullableDouble(PreparedStatement ps, int index, Double value) throws SQLException {
-            if (value == null) {
-                ps.setNull(index, java.sql.Types.NUMERIC);
-            } else {
-                ps.setDouble(index, value);
+                throw new IOException("DB logging failed: " + e.getMessage(), e);
             }
         }
 
-        private static Double percentValue(double numerator, double denominator) {
-            if (denominator == 0) {
-                return null;
+        /** Opens a connection to {@code GS_ROSTER_RECONCILER_DB_URL}. */
+        static Connection connect() throws IOException, SQLException {
+            String url = System.getenv("GS_ROSTER_RECONCILER_DB_URL");
+            if (url == null || url.isBlank()) {
+                throw new IOException("DB logging requires GS_ROSTER_RECONCILER_DB_URL to be set");
             }
-            return (numerator / denominator) * 100.0;
+            return DriverManager.getConnection(url);
         }
 
-        private static String toJsonMap(Map<String, Integer> values) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("{");
-            List<String> keys = new ArrayList<>(values.keySet());
-            keys.sort(String::compareTo);
-            for (int i = 0; i < keys.size(); i++) {
-                String key = keys.get(i);
-                sb.append("\"").append(escapeJson(key)).append("\":").append(values.get(key));
-                if (i < keys.size() - 1) {
-                    sb.append(",");
+        /**
+         * Creates the monthly {@code key_changes} partition that holds {@code recordedAt} (UTC) when it is missing.
+         * The lookup is one catalog query; the DDL runs about once a month, in its own short transaction and under
+         * an advisory lock so concurrent runs do not race. Call with auto-commit on.
+         */
+        static void ensureChangePartition(Connection connection, String schema, Instant recordedAt)
+                throws SQLException {
+            YearMonth month = YearMonth.from(recordedAt.atOffset(ZoneOffset.UTC));
+            String partition = changePartition(schema, month);
+            try (Statement statement = connection.createStatement();
+                 ResultSet result = statement.executeQuery("SELECT to_regclass('" + partition + "')")) {
+                if (result.next() && result.getString(1) != null) {
+                    return;
                 }
             }
-            sb.append("}");
-            return sb.toString();
-        }
-
-        private static String toJsonCompleteness(Roster roster) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("{");
-            List<String> fields = new ArrayList<>(roster.header);
-            fields.sort(String::compareTo);
-            for (int i = 0; i < fields.size(); i++) {
-                String field = fields.get(i);
-                int nonEmpty = roster.nonEmptyCounts.getOrDefault(field, 0);
-                sb.append("\"").append(escapeJson(field)).append("\":{");
-                sb.append("\"non_empty\":").append(nonEmpty).append(",");
-                sb.append("\"total\":").append(roster.totalRows).append(",");
-                sb.append("\"pct\":").append(percentValue(nonEmpty, roster.totalRows));
-                sb.append("}");
-                if (i < fields.size() - 1) {
-                    sb.append(",");
-                }
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SELECT pg_advisory_xact_lock(hashtext('" + schema + ".key_changes'))");
+                statement.execute("CREATE TABLE IF NOT EXISTS " + partition + " PARTITION OF " + schema +
+                        ".key_changes FOR VALUES FROM ('" + month.atDay(1) + " 00:00:00+00') TO ('" +
+                        month.plusMonths(1).atDay(1) + " 00:00:00+00')");
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
             }
-            sb.append("}");
-            return sb.toString();
         }
 
-        private static String escapeJson(String input) {
-            return input.replace("\\", "\\\\").replace("\"", "\\\"");
+        static String changePartition(String schema, YearMonth month) {
+            return String.format(Locale.ROOT, "%s.key_changes_%04d%02d", schema, month.getYear(), month.getMonthValue());
         }
 
-        private record DbConfig(String host, String port, String name, String user, String password, String sslMode) {
-            private static DbConfig fromEnv() throws IOException {
-                String host = envOrDefault(ENV_HOST, "db-acupinir.groupscholar.com");
-                String port = envOrDefault(ENV_PORT, "23947");
-                String name = envOrDefault(ENV_NAME, "postgres");
-                String user = envOrDefault(ENV_USER, "ralph");
-                String password = System.getenv(ENV_PASSWORD);
-                String sslMode = envOrDefault(ENV_SSLMODE, "require");
-                if (password == null || password.isBlank()) {
-                    throw new IOException("Missing required env var: " + ENV_PASSWORD);
-                }
-                return new DbConfig(host, port, name, user, password, sslMode);
+        /**
+         * Brings {@code schema} up to the newest of {@link #migrations}. The usual case is one query against
+         * {@code schema_migrations}; DDL only runs when that version is behind, in its own transaction and under an
+         * advisory lock so concurrent runs do not race to create the same objects. Call with auto-commit on, before
+         * the run's own transaction starts.
+         */
+        static void ensureSchema(Connection connection, String schema) throws SQLException {
+            List<List<String>> migrations = migrations(schema);
+            if (schemaVersion(connection, schema) >= migrations.size()) {
+                return;
             }
-
-            private static String envOrDefault(String key, String fallback) {
-                String value = System.getenv(key);
-                if (value == null || value.isBlank()) {
-                    return fallback;
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SELECT pg_advisory_xact_lock(hashtext('" + schema + ".schema_migrations'))");
+                statement.execute("CREATE SCHEMA IF NOT EXISTS " + schema);
+                statement.execute("CREATE TABLE IF NOT EXISTS " + schema + ".schema_migrations (" +
+                        "version integer PRIMARY KEY, applied_at timestamptz NOT NULL DEFAULT now())");
+                for (int version = schemaVersion(connection, schema); version < migrations.size(); version++) {
+                    for (String ddl : migrations.get(version)) {
+                        statement.execute(ddl);
+                    }
+                    statement.execute("INSERT INTO " + schema + ".schema_migrations (version) VALUES (" +
+                            (version + 1) + ")");
                 }
-                return value;
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
             }
         }
-    }
-
-    record DbRunOptions(String exportDir, boolean exportUnchanged, boolean exportUpdatedRows,
-                        boolean exportStatus, String jsonPath) {}
 
-    static class DbLogger {
-        static void logRun(Report report, String previousPath, String currentPath, String app, String schema,
-                           List<String> keyColumns, String keyNormalize, String valueNormalize, boolean summaryOnly,
-                           int detailLimit, DbRunOptions runOptions, Instant startedAt, Instant finishedAt)
-                throws IOException {
-            String url = System.getenv("GS_ROSTER_RECONCILER_DB_URL");
-            if (url == null || url.isBlank()) {
-                throw new IOException("DB logging requires GS_ROSTER_RECONCILER_DB_URL to be set");
-            }
-            UUID runId = UUID.randomUUID();
-            try (Connection connection = DriverManager.getConnection(url)) {
-                connection.setAutoCommit(false);
-                ensureSchema(connection, schema);
-                insertRun(connection, schema, runId, report, previousPath, currentPath, app, keyColumns, keyNormalize,
-                        valueNormalize, summaryOnly, detailLimit, runOptions, startedAt, finishedAt);
-                insertFieldChangeCounts(connection, schema, runId, report.fieldChangeCounts);
-                insertMissingKeyCounts(connection, schema, runId, "previous", report.previous.missingKeyCounts);
-                insertMissingKeyCounts(connection, schema, runId, "current", report.current.missingKeyCounts);
-                insertFieldCompleteness(connection, schema, runId, "previous", report.previous);
-                insertFieldCompleteness(connection, schema, runId, "current", report.current);
-                connection.commit();
+        /** Highest applied migration, or 0 when the schema or its {@code schema_migrations} table does not exist. */
+        static int schemaVersion(Connection connection, String schema) throws SQLException {
+            try (Statement statement = connection.createStatement();
+                 ResultSet result = statement.executeQuery(
+                         "SELECT coalesce(max(version), 0) FROM " + schema + ".schema_migrations")) {
+                return result.next() ? result.getInt(1) : 0;
             } catch (SQLException e) {
-                throw new IOException("DB logging failed: " + e.getMessage(), e);
+                if ("42P01".equals(e.getSQLState()) || "3F000".equals(e.getSQLState())) {
+                    return 0;
+                }
+                throw e;
             }
         }
 
-        private static void ensureSchema(Connection connection, String schema) throws SQLException {
-            try (Statement statement = connection.createStatement()) {
-                statement.execute("CREATE SCHEMA IF NOT EXISTS " + schema);
-                statement.execute("""
-                        CREATE TABLE IF NOT EXISTS %s.runs (
-                          run_id uuid PRIMARY KEY,
-                          created_at timestamptz NOT NULL,
-                          app text NOT NULL,
-                          previous_path text NOT NULL,
-                          current_path text NOT NULL,
-                          key_columns text NOT NULL,
-                          key_normalize text NOT NULL,
-                          value_normalize text NOT NULL,
-                          ignored_fields text,
-                          unknown_ignored_fields text,
-                          summary_only boolean NOT NULL,
-                          detail_limit integer NOT NULL,
-                          total_previous integer NOT NULL,
-                          total_current integer NOT NULL,
-                          added integer NOT NULL,
-                          removed integer NOT NULL,
-                          updated integer NOT NULL,
-                          unchanged integer NOT NULL,
-                          duplicate_keys_previous integer NOT NULL,
-                          duplicate_keys_current integer NOT NULL,
-                          invalid_rows_previous integer NOT NULL,
-                          invalid_rows_current integer NOT NULL,
-                          net_change integer NOT NULL,
-                          net_change_pct_previous numeric,
-                          added_pct_current numeric,
-                          removed_pct_previous numeric,
-                          updated_pct_shared numeric,
-                          unchanged_pct_shared numeric,
-                          export_dir text,
-                          export_unchanged boolean,
-                          export_updated_rows boolean,
-                          export_status boolean,
-                          json_path text,
-                          started_at timestamptz,
-                          finished_at timestamptz
-                        )
-                        """.formatted(schema));
-                statement.execute("""
-                        CREATE TABLE IF NOT EXISTS %s.field_change_counts (
-                          run_id uuid REFERENCES %s.runs(run_id) ON DELETE CASCADE,
-                          field_name text NOT NULL,
-                          change_count integer NOT NULL
-                        )
-                        """.formatted(schema, schema));
-                statement.execute("""
-                        CREATE TABLE IF NOT EXISTS %s.missing_key_counts (
-                          run_id uuid REFERENCES %s.runs(run_id) ON DELETE CASCADE,
-                          roster_side text NOT NULL,
-                          key_column text NOT NULL,
-                          missing_count integer NOT NULL
-                        )
-                        """.formatted(schema, schema));
-                statement.execute("""
-                        CREATE TABLE IF NOT EXISTS %s.field_completeness (
-                          run_id uuid REFERENCES %s.runs(run_id) ON DELETE CASCADE,
-                          roster_side text NOT NULL,
-                          field_name text NOT NULL,
-                          non_empty integer NOT NULL,
-                          total_rows integer NOT NULL,
-                          pct numeric
-                        )
-                        """.formatted(schema, schema));
-            }
+        /**
+         * DDL for each schema version, oldest first; append a step rather than editing one. Version 1 keeps
+         * {@code IF NOT EXISTS} so schemas created before {@code schema_migrations} existed are adopted in place.
+         */
+        static List<List<String>> migrations(String schema) {
+            return List.of(
+                    List.of(
+                            """
+                            CREATE TABLE IF NOT EXISTS %s.runs (
+                              run_id uuid PRIMARY KEY,
+                              created_at timestamptz NOT NULL,
+                              app text NOT NULL,
+                              previous_path text NOT NULL,
+                              current_path text NOT NULL,
+                              key_columns text NOT NULL,
+                              key_normalize text NOT NULL,
+                              value_normalize text NOT NULL,
+                              ignored_fields text,
+                              unknown_ignored_fields text,
+                              summary_only boolean NOT NULL,
+                              detail_limit integer NOT NULL,
+                              total_previous integer NOT NULL,
+                              total_current integer NOT NULL,
+                              added integer NOT NULL,
+                              removed integer NOT NULL,
+                              updated integer NOT NULL,
+                              unchanged integer NOT NULL,
+                              duplicate_keys_previous integer NOT NULL,
+                              duplicate_keys_current integer NOT NULL,
+                              invalid_rows_previous integer NOT NULL,
+                              invalid_rows_current integer NOT NULL,
+                              net_change integer NOT NULL,
+                              net_change_pct_previous numeric,
+                              added_pct_current numeric,
+                              removed_pct_previous numeric,
+                              updated_pct_shared numeric,
+                              unchanged_pct_shared numeric,
+                              export_dir text,
+                              export_unchanged boolean,
+                              export_updated_rows boolean,
+                              export_status boolean,
+                              json_path text,
+                              started_at timestamptz,
+                              finished_at timestamptz
+                            )
+                            """.formatted(schema),
+                            """
+                            CREATE TABLE IF NOT EXISTS %s.field_change_counts (
+                              run_id uuid REFERENCES %s.runs(run_id) ON DELETE CASCADE,
+                              field_name text NOT NULL,
+                              change_count integer NOT NULL
+                            )
+                            """.formatted(schema, schema),
+                            """
+                            CREATE TABLE IF NOT EXISTS %s.missing_key_counts (
+                              run_id uuid REFERENCES %s.runs(run_id) ON DELETE CASCADE,
+                              roster_side text NOT NULL,
+                              key_column text NOT NULL,
+                              missing_count integer NOT NULL
+                            )
+                            """.formatted(schema, schema),
+                            """
+                            CREATE TABLE IF NOT EXISTS %s.field_completeness (
+                              run_id uuid REFERENCES %s.runs(run_id) ON DELETE CASCADE,
+                              roster_side text NOT NULL,
+                              field_name text NOT NULL,
+                              non_empty integer NOT NULL,
+                              total_rows integer NOT NULL,
+                              pct numeric
+                            )
+                            """.formatted(schema, schema)),
+                    List.of(
+                            """
+                            CREATE TABLE IF NOT EXISTS %s.key_changes (
+                              run_id uuid NOT NULL REFERENCES %s.runs(run_id) ON DELETE CASCADE,
+                              recorded_at timestamptz NOT NULL,
+                              change_type text NOT NULL,
+                              record_key text NOT NULL,
+                              field_name text NOT NULL,
+                              before_value text,
+                              after_value text
+                            ) PARTITION BY RANGE (recorded_at)
+                            """.formatted(schema, schema),
+                            "CREATE INDEX IF NOT EXISTS key_changes_key_idx ON " + schema +
+                                    ".key_changes (record_key, field_name)",
+                            "CREATE INDEX IF NOT EXISTS key_changes_field_idx ON " + schema +
+                                    ".key_changes (field_name)",
+                            "CREATE INDEX IF NOT EXISTS key_changes_run_idx ON " + schema +
+                                    ".key_changes (run_id)"));
         }
 
         private static void insertRun(Connection connection, String schema, UUID runId, Report report, String previousPath,
@@ -1440,7 +5095,7 @@ public class Main {
                     "export_updated_rows, export_status, json_path, started_at, finished_at" +
                     ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
             try (PreparedStatement statement = connection.prepareStatement(sql)) {
-                int sharedCount = report.updates.size() + report.unchanged;
+                int sharedCount = report.totals.updated() + report.unchanged;
                 statement.setObject(1, runId);
                 statement.setTimestamp(2, Timestamp.from(startedAt));
                 statement.setString(3, app);
@@ -1453,22 +5108,22 @@ public class Main {
                 statement.setString(10, joinSorted(report.unknownIgnoredFields));
                 statement.setBoolean(11, summaryOnly);
                 statement.setInt(12, detailLimit);
-                statement.setInt(13, report.previous.rows.size());
-                statement.setInt(14, report.current.rows.size());
-                statement.setInt(15, report.added.size());
-                statement.setInt(16, report.removed.size());
-                statement.setInt(17, report.updates.size());
+                statement.setInt(13, report.totals.previous());
+                statement.setInt(14, report.totals.current());
+                statement.setInt(15, report.totals.added());
+                statement.setInt(16, report.totals.removed());
+                statement.setInt(17, report.totals.updated());
                 statement.setInt(18, report.unchanged);
                 statement.setInt(19, report.previous.duplicates);
                 statement.setInt(20, report.current.duplicates);
                 statement.setInt(21, report.previous.invalid);
                 statement.setInt(22, report.current.invalid);
-                statement.setInt(23, report.current.rows.size() - report.previous.rows.size());
-                setNullableNumeric(statement, 24, ratio(report.current.rows.size() - report.previous.rows.size(),
-                        report.previous.rows.size()));
-                setNullableNumeric(statement, 25, ratio(report.added.size(), report.current.rows.size()));
-                setNullableNumeric(statement, 26, ratio(report.removed.size(), report.previous.rows.size()));
-                setNullableNumeric(statement, 27, ratio(report.updates.size(), sharedCount));
+                statement.setInt(23, report.totals.current() - report.totals.previous());
+                setNullableNumeric(statement, 24, ratio(report.totals.current() - report.totals.previous(),
+                        report.totals.previous()));
+                setNullableNumeric(statement, 25, ratio(report.totals.added(), report.totals.current()));
+                setNullableNumeric(statement, 26, ratio(report.totals.removed(), report.totals.previous()));
+                setNullableNumeric(statement, 27, ratio(report.totals.updated(), sharedCount));
                 setNullableNumeric(statement, 28, ratio(report.unchanged, sharedCount));
                 statement.setString(29, blankToNull(options.exportDir()));
                 statement.setObject(30, options.exportDir() == null ? null : options.exportUnchanged(), Types.BOOLEAN);
@@ -1482,60 +5137,47 @@ public class Main {
         }
 
         private static void insertFieldChangeCounts(Connection connection, String schema, UUID runId,
-                                                    Map<String, Integer> counts) throws SQLException {
+                                                    Map<String, Integer> counts, DbWriteOptions options)
+                throws SQLException {
             if (counts.isEmpty()) {
                 return;
             }
-            String sql = "INSERT INTO " + schema + ".field_change_counts (run_id, field_name, change_count) VALUES (?,?,?)";
-            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            try (BulkWriter writer = BulkWriter.open(connection, schema + ".field_change_counts", FIELD_CHANGE_COLUMNS,
+                    options)) {
                 for (Map.Entry<String, Integer> entry : counts.entrySet()) {
-                    statement.setObject(1, runId);
-                    statement.setString(2, entry.getKey());
-                    statement.setInt(3, entry.getValue());
-                    statement.addBatch();
+                    writer.row(runId, entry.getKey(), entry.getValue());
                 }
-                statement.executeBatch();
+                writer.finish();
             }
         }
 
         private static void insertMissingKeyCounts(Connection connection, String schema, UUID runId, String side,
-                                                   Map<String, Integer> counts) throws SQLException {
+                                                   Map<String, Integer> counts, DbWriteOptions options)
+                throws SQLException {
             if (counts.isEmpty()) {
                 return;
             }
-            String sql = "INSERT INTO " + schema + ".missing_key_counts (run_id, roster_side, key_column, missing_count) " +
-                    "VALUES (?,?,?,?)";
-            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            try (BulkWriter writer = BulkWriter.open(connection, schema + ".missing_key_counts", MISSING_KEY_COLUMNS,
+                    options)) {
                 for (Map.Entry<String, Integer> entry : counts.entrySet()) {
-                    statement.setObject(1, runId);
-                    statement.setString(2, side);
-                    statement.setString(3, entry.getKey());
-                    statement.setInt(4, entry.getValue());
-                    statement.addBatch();
+                    writer.row(runId, side, entry.getKey(), entry.getValue());
                 }
-                statement.executeBatch();
+                writer.finish();
             }
         }
 
         private static void insertFieldCompleteness(Connection connection, String schema, UUID runId, String side,
-                                                    Roster roster) throws SQLException {
+                                                    Roster roster, DbWriteOptions options) throws SQLException {
             if (roster.header.isEmpty()) {
                 return;
             }
-            String sql = "INSERT INTO " + schema + ".field_completeness " +
-                    "(run_id, roster_side, field_name, non_empty, total_rows, pct) VALUES (?,?,?,?,?,?)";
-            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            try (BulkWriter writer = BulkWriter.open(connection, schema + ".field_completeness", COMPLETENESS_COLUMNS,
+                    options)) {
                 for (String field : roster.header) {
                     int nonEmpty = roster.nonEmptyCounts.getOrDefault(field, 0);
-                    statement.setObject(1, runId);
-                    statement.setString(2, side);
-                    statement.setString(3, field);
-                    statement.setInt(4, nonEmpty);
-                    statement.setInt(5, roster.totalRows);
-                    setNullableNumeric(statement, 6, ratio(nonEmpty, roster.totalRows));
-                    statement.addBatch();
+                    writer.row(runId, side, field, nonEmpty, roster.totalRows, ratio(nonEmpty, roster.totalRows));
                 }
-                statement.executeBatch();
+                writer.finish();
             }
         }
 
@@ -1570,4 +5212,394 @@ public class Main {
             }
         }
     }
+
+    /**
+     * Collects the per-key changes of one run for {@code --db-log-changes}. Each added or removed key becomes one
+     * row per field of its roster, and each updated key one row per changed field.
+     *
+     * <p>Changes are spooled to a temporary file as the reconcile reports them, so no connection or transaction is
+     * held while the rosters load and diff. {@link DbLogger#logRun} then bulk-loads the spool into
+     * {@code key_changes} inside the short transaction that writes the run row, so a failed run leaves nothing in
+     * the database. The in-memory mode reports changes from the replay after {@code diff}, as it does for the other
+     * listeners; the streaming modes report them while they merge.
+     */
+    static final class DbChangeLog implements DiffListener {
+        static final List<BulkColumn> COLUMNS = List.of(
+                new BulkColumn("run_id", Types.OTHER),
+                new BulkColumn("recorded_at", Types.TIMESTAMP_WITH_TIMEZONE),
+                new BulkColumn("change_type", Types.VARCHAR),
+                new BulkColumn("record_key", Types.VARCHAR),
+                new BulkColumn("field_name", Types.VARCHAR),
+                new BulkColumn("before_value", Types.VARCHAR),
+                new BulkColumn("after_value", Types.VARCHAR));
+
+        private final Path spool;
+        private DataOutputStream out;
+        private List<String> previousHeader;
+        private List<String> currentHeader;
+        private long rows;
+
+        DbChangeLog(Path spool) {
+            this.spool = spool;
+        }
+
+        /** Creates a change log spooling to a temporary file that is removed once loaded, or on exit. */
+        static DbChangeLog create() throws IOException {
+            Path spool = Files.createTempFile("roster-changes", ".spool");
+            spool.toFile().deleteOnExit();
+            return new DbChangeLog(spool);
+        }
+
+        long rows() {
+            return rows;
+        }
+
+        @Override
+        public void begin(List<String> previousHeader, List<String> currentHeader, List<String> combinedHeader)
+                throws IOException {
+            this.previousHeader = previousHeader;
+            this.currentHeader = currentHeader;
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spool), READ_BUFFER_SIZE));
+        }
+
+        @Override
+        public void added(String key, String[] currentValues) throws IOException {
+            for (int i = 0; i < currentHeader.size(); i++) {
+                write(KeyClassification.ADDED, key, currentHeader.get(i), null, value(currentValues, i));
+            }
+        }
+
+        @Override
+        public void removed(String key, String[] previousValues) throws IOException {
+            for (int i = 0; i < previousHeader.size(); i++) {
+                write(KeyClassification.REMOVED, key, previousHeader.get(i), value(previousValues, i), null);
+            }
+        }
+
+        @Override
+        public void updated(Update update, String[] previousValues, String[] currentValues) throws IOException {
+            for (Map.Entry<String, Change> entry : update.changes.entrySet()) {
+                write(KeyClassification.UPDATED, update.key, entry.getKey(), entry.getValue().before,
+                        entry.getValue().after);
+            }
+        }
+
+        /** Closes the spool for writing; it stays on disk for {@link #load}. */
+        @Override
+        public void close() throws IOException {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        }
+
+        /**
+         * Writes every spooled change for {@code runId} through a {@link BulkWriter}, then deletes the spool. Runs
+         * on the caller's transaction; the run row must already be inserted.
+         */
+        long load(Connection connection, String schema, UUID runId, Instant recordedAt, DbWriteOptions options)
+                throws IOException, SQLException {
+            close();
+            try {
+                if (rows == 0) {
+                    return 0;
+                }
+                OffsetDateTime recorded = recordedAt.atOffset(ZoneOffset.UTC);
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spool),
+                        READ_BUFFER_SIZE));
+                     BulkWriter writer = BulkWriter.open(connection, schema + ".key_changes", COLUMNS, options)) {
+                    for (long i = 0; i < rows; i++) {
+                        byte status = in.readByte();
+                        String key = RosterSnapshot.readString(in);
+                        String field = RosterSnapshot.readString(in);
+                        String before = readNullable(in);
+                        String after = readNullable(in);
+                        writer.row(runId, recorded, KeyClassification.statusName(status), key, field, before, after);
+                    }
+                    return writer.finish();
+                }
+            } finally {
+                Files.deleteIfExists(spool);
+            }
+        }
+
+        private void write(byte status, String key, String field, String before, String after) throws IOException {
+            out.writeByte(status);
+            RosterSnapshot.writeString(out, key);
+            RosterSnapshot.writeString(out, field);
+            writeNullable(before);
+            writeNullable(after);
+            rows++;
+        }
+
+        private void writeNullable(String value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                RosterSnapshot.writeString(out, value);
+            }
+        }
+
+        private static String readNullable(DataInputStream in) throws IOException {
+            return in.readBoolean() ? RosterSnapshot.readString(in) : null;
+        }
+
+        private static String value(String[] values, int index) {
+            return index < values.length ? values[index] : null;
+        }
+    }
+
+    /** One column of a {@link BulkWriter} target table; {@code sqlType} is a {@link Types} constant. */
+    record BulkColumn(String name, int sqlType) {}
+
+    /**
+     * Row-at-a-time sink for one table. {@link #open} picks a COPY stream when {@link DbWriteOptions#copy()} is set
+     * and the connection is a PostgreSQL one, and JDBC batches otherwise. Rows are only guaranteed to be written
+     * once {@link #finish()} returns; closing without finishing abandons the pending rows.
+     */
+    interface BulkWriter extends AutoCloseable {
+        void row(Object... values) throws SQLException;
+
+        /** Writes any pending rows and returns the number of rows written in total. */
+        long finish() throws SQLException;
+
+        @Override
+        void close() throws SQLException;
+
+        static BulkWriter open(Connection connection, String table, List<BulkColumn> columns, DbWriteOptions options)
+                throws SQLException {
+            if (options.copy()) {
+                CopyStream stream = CopyStream.open(connection, CopyWriter.copySql(table, columns));
+                if (stream != null) {
+                    return new CopyWriter(columns.size(), stream);
+                }
+            }
+            return new BatchWriter(connection, table, columns, options.batchSize());
+        }
+    }
+
+    /** One prepared single-row {@code INSERT}; rows go through {@code addBatch}, sent every {@code batchSize} rows. */
+    static final class BatchWriter implements BulkWriter {
+        private final PreparedStatement statement;
+        private final List<BulkColumn> columns;
+        private final int batchSize;
+        private int pending;
+        private long written;
+
+        BatchWriter(Connection connection, String table, List<BulkColumn> columns, int batchSize) throws SQLException {
+            this.statement = connection.prepareStatement(insertSql(table, columns));
+            this.columns = columns;
+            this.batchSize = batchSize;
+        }
+
+        static String insertSql(String table, List<BulkColumn> columns) {
+            StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+            StringBuilder values = new StringBuilder();
+            for (int i = 0; i < columns.size(); i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                    values.append(",");
+                }
+                sql.append(columns.get(i).name());
+                values.append("?");
+            }
+            return sql.append(") VALUES (").append(values).append(")").toString();
+        }
+
+        @Override
+        public void row(Object... values) throws SQLException {
+            for (int i = 0; i < columns.size(); i++) {
+                int sqlType = columns.get(i).sqlType();
+                if (values[i] == null) {
+                    statement.setNull(i + 1, sqlType);
+                } else {
+                    statement.setObject(i + 1, values[i], sqlType);
+                }
+            }
+            statement.addBatch();
+            if (++pending == batchSize) {
+                flush();
+            }
+        }
+
+        private void flush() throws SQLException {
+            if (pending > 0) {
+                statement.executeBatch();
+                written += pending;
+                pending = 0;
+            }
+        }
+
+        @Override
+        public long finish() throws SQLException {
+            flush();
+            return written;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            statement.close();
+        }
+    }
+
+    /**
+     * {@code COPY ... FROM STDIN} in PostgreSQL text format. Rows are encoded straight into a byte buffer that is
+     * handed to the server whenever it fills, so no row objects are kept and no statement is parsed per batch.
+     */
+    static final class CopyWriter implements BulkWriter {
+        private static final int BUFFER_SIZE = 1 << 16;
+
+        private final int columnCount;
+        private final CopyStream stream;
+        private final StringBuilder line = new StringBuilder();
+        private byte[] buffer = new byte[BUFFER_SIZE];
+        private int length;
+        private boolean finished;
+
+        CopyWriter(int columnCount, CopyStream stream) {
+            this.columnCount = columnCount;
+            this.stream = stream;
+        }
+
+        static String copySql(String table, List<BulkColumn> columns) {
+            StringBuilder sql = new StringBuilder("COPY ").append(table).append(" (");
+            for (int i = 0; i < columns.size(); i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                sql.append(columns.get(i).name());
+            }
+            return sql.append(") FROM STDIN").toString();
+        }
+
+        /** Appends {@code value} as one text-format field: {@code \N} for null, with backslash escapes. */
+        static void appendField(StringBuilder out, Object value) {
+            if (value == null) {
+                out.append("\\N");
+                return;
+            }
+            String text = value.toString();
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                switch (c) {
+                    case '\\' -> out.append("\\\\");
+                    case '\t' -> out.append("\\t");
+                    case '\n' -> out.append("\\n");
+                    case '\r' -> out.append("\\r");
+                    default -> out.append(c);
+                }
+            }
+        }
+
+        @Override
+        public void row(Object... values) throws SQLException {
+            line.setLength(0);
+            for (int i = 0; i < columnCount; i++) {
+                if (i > 0) {
+                    line.append('\t');
+                }
+                appendField(line, values[i]);
+            }
+            line.append('\n');
+            byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+            if (length + bytes.length > buffer.length) {
+                flush();
+                if (bytes.length > buffer.length) {
+                    buffer = new byte[bytes.length];
+                }
+            }
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+
+        private void flush() throws SQLException {
+            if (length > 0) {
+                stream.write(buffer, 0, length);
+                length = 0;
+            }
+        }
+
+        @Override
+        public long finish() throws SQLException {
+            flush();
+            finished = true;
+            return stream.end();
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if (!finished) {
+                stream.cancel();
+            }
+        }
+    }
+
+    /**
+     * The server side of a COPY. {@link #open} reaches the PostgreSQL driver's {@code CopyIn} reflectively so the
+     * CLI still builds and runs without the driver jar.
+     */
+    interface CopyStream {
+        void write(byte[] data, int offset, int length) throws SQLException;
+
+        /** Completes the COPY and returns the number of rows the server reports. */
+        long end() throws SQLException;
+
+        void cancel() throws SQLException;
+
+        /** Starts {@code sql} on {@code connection}, or returns null when it is not a PostgreSQL connection. */
+        static CopyStream open(Connection connection, String sql) throws SQLException {
+            Class<?> pgConnection;
+            Class<?> copyIn;
+            try {
+                pgConnection = Class.forName("org.postgresql.PGConnection");
+                copyIn = Class.forName("org.postgresql.copy.CopyIn");
+            } catch (ClassNotFoundException e) {
+                return null;
+            }
+            if (!connection.isWrapperFor(pgConnection)) {
+                return null;
+            }
+            Object manager = invoke(method(pgConnection, "getCopyAPI"), connection.unwrap(pgConnection));
+            Object copy = invoke(method(manager.getClass(), "copyIn", String.class), manager, sql);
+            Method write = method(copyIn, "writeToCopy", byte[].class, int.class, int.class);
+            Method end = method(copyIn, "endCopy");
+            Method cancel = method(copyIn, "cancelCopy");
+            return new CopyStream() {
+                @Override
+                public void write(byte[] data, int offset, int length) throws SQLException {
+                    invoke(write, copy, data, offset, length);
+                }
+
+                @Override
+                public long end() throws SQLException {
+                    return (Long) invoke(end, copy);
+                }
+
+                @Override
+                public void cancel() throws SQLException {
+                    invoke(cancel, copy);
+                }
+            };
+        }
+
+        private static Method method(Class<?> type, String name, Class<?>... parameters) throws SQLException {
+            try {
+                return type.getMethod(name, parameters);
+            } catch (NoSuchMethodException e) {
+                throw new SQLException("Unsupported PostgreSQL driver: " + e.getMessage(), e);
+            }
+        }
+
+        private static Object invoke(Method method, Object target, Object... args) throws SQLException {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof SQLException sqlException) {
+                    throw sqlException;
+                }
+                throw new SQLException("COPY failed: " + e.getCause(), e.getCause());
+            } catch (IllegalAccessException e) {
+                throw new SQLException("Unsupported PostgreSQL driver: " + e.getMessage(), e);
+            }
+        }
+    }
 }
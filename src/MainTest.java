@@ -1,14 +1,56 @@
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.lang.reflect.Proxy;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
 
 public class MainTest {
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) throws IOException, SQLException {
         testParseCsvLine();
         testReadRosterMissingKeys();
         testReadRosterCompleteness();
+        testReadRosterRowNumbers();
+        testRosterTableColumns();
+        testDictionaryEncodedColumns();
+        testMergeDiffSortedInput();
+        testExternalSort();
+        testPartitionedDiff();
+        testRowFingerprints();
+        testRosterSnapshot();
+        testMappedRoster();
+        testCsvRecordReader();
+        testParallelParse();
+        testConcurrentLoad();
+        testCsvWriter();
+        testGzipRoster();
+        testStreamingJson();
+        testNdjsonEvents();
+        testColumnarExport();
+        testKeyClassification();
+        testNormalizedEquals();
+        testCompositeKeys();
+        testPartitionedCompositeKeys();
+        testProbeClassification();
+        testBulkWriter();
+        testDbChangeLog();
+        testSchemaMigrations();
+        testSchemaReference();
         System.out.println("MainTest: all tests passed.");
     }
 
@@ -54,6 +96,943 @@ public class MainTest {
         assertEquals(2, roster.nonEmptyCounts().getOrDefault("name", 0), "completeness name");
     }
 
+    private static void testReadRosterRowNumbers() throws IOException {
+        Path temp = Files.createTempFile("roster-row-numbers", ".csv");
+        List<String> lines = List.of(
+                "email,name",
+                "a@example.com,Alice",
+                "",
+                ",Blank",
+                "a@example.com,Again",
+                "   ",
+                ",Blank Again"
+        );
+        Files.write(temp, lines, StandardCharsets.UTF_8);
+
+        Main.Roster roster = Main.readRoster(temp, List.of("email"), "none");
+        assertEquals(1, roster.rows().size(), "row numbers valid rows");
+        assertEquals(1, roster.duplicates(), "row numbers duplicates");
+        assertEquals(4, roster.totalRows(), "row numbers total rows");
+        assertEquals(2, roster.invalidRows().size(), "row numbers invalid size");
+        assertEquals(4, roster.invalidRows().get(0), "row numbers first invalid");
+        assertEquals(7, roster.invalidRows().get(1), "row numbers second invalid");
+    }
+
+    private static void testRosterTableColumns() throws IOException {
+        Path temp = Files.createTempFile("roster-columns", ".csv");
+        List<String> lines = List.of(
+                "email,cohort,name",
+                "a@example.com,Spring,Alice",
+                "b@example.com,Fall",
+                "a@example.com,Summer,Duplicate"
+        );
+        Files.write(temp, lines, StandardCharsets.UTF_8);
+
+        Main.Roster roster = Main.readRoster(temp, List.of("email"), "none");
+        Main.RosterTable rows = roster.rows();
+        assertEquals(2, rows.size(), "columns row count");
+        int alice = rows.ordinal("a@example.com");
+        int bob = rows.ordinal("b@example.com");
+        assertEquals(0, alice, "columns first ordinal");
+        assertEquals(1, bob, "columns second ordinal");
+        assertEquals(-1, rows.ordinal("c@example.com"), "columns missing ordinal");
+        assertEquals("Spring", rows.value(alice, "cohort"), "columns first-wins value");
+        assertEquals("", rows.value(bob, "name"), "columns padded value");
+        assertEquals("", rows.value(bob, "region"), "columns unknown field");
+    }
+
+    private static void testDictionaryEncodedColumns() throws IOException {
+        Path previousPath = Files.createTempFile("roster-dict-prev", ".csv");
+        Path currentPath = Files.createTempFile("roster-dict-cur", ".csv");
+        Files.write(previousPath, List.of("email,status", "a@example.com,active", "b@example.com,paused"),
+                StandardCharsets.UTF_8);
+        Files.write(currentPath, List.of("email,status", "b@example.com,paused", "a@example.com,alumni"),
+                StandardCharsets.UTF_8);
+
+        Main.DictionaryEncoding encoding = Main.DictionaryEncoding.parse("status");
+        Main.RosterLoadOptions options = new Main.RosterLoadOptions(List.of("email"), "none", encoding);
+        Main.RosterTable previous = Main.readRoster(previousPath, options).rows();
+        Main.RosterTable current = Main.readRoster(currentPath, options).rows();
+        Main.ColumnVector previousStatus = previous.column(previous.columnIndex("status"));
+        Main.ColumnVector currentStatus = current.column(current.columnIndex("status"));
+        assertEquals(1, previousStatus.dictionary() == currentStatus.dictionary() ? 1 : 0, "dictionary shared");
+        assertEquals(1, previous.column(previous.columnIndex("email")).dictionary() == null ? 1 : 0, "email plain");
+        assertEquals(previousStatus.code(previous.ordinal("b@example.com")),
+                currentStatus.code(current.ordinal("b@example.com")), "dictionary equal codes");
+        assertEquals("alumni", current.value(current.ordinal("a@example.com"), "status"), "dictionary decode");
+        assertEquals(3, previousStatus.dictionary().size(), "dictionary cardinality");
+
+        StringBuilder wide = new StringBuilder("email,status\n");
+        for (int i = 0; i <= Main.DictionaryEncoding.AUTO_MAX_CARDINALITY; i++) {
+            wide.append("user").append(i).append("@example.com,active\n");
+        }
+        Path widePath = Files.createTempFile("roster-dict-auto", ".csv");
+        Files.writeString(widePath, wide.toString(), StandardCharsets.UTF_8);
+        Main.RosterTable auto = Main.readRoster(widePath, new Main.RosterLoadOptions(List.of("email"), "none",
+                Main.DictionaryEncoding.parse("auto"))).rows();
+        assertEquals(1, auto.column(auto.columnIndex("email")).dictionary() == null ? 1 : 0, "auto email fallback");
+        assertEquals(1, auto.column(auto.columnIndex("status")).dictionary() != null ? 1 : 0, "auto status encoded");
+        assertEquals("user0@example.com", auto.value(0, "email"), "auto decoded after fallback");
+    }
+
+    private static void testMergeDiffSortedInput() throws IOException {
+        Path previousPath = Files.createTempFile("roster-merge-prev", ".csv");
+        Path currentPath = Files.createTempFile("roster-merge-cur", ".csv");
+        Files.write(previousPath, List.of(
+                "email,status",
+                "a@example.com,active",
+                "b@example.com,active",
+                "b@example.com,duplicate",
+                "d@example.com,active"
+        ), StandardCharsets.UTF_8);
+        Files.write(currentPath, List.of(
+                "email,status",
+                ",missing",
+                "b@example.com,paused",
+                "c@example.com,active",
+                "d@example.com,active"
+        ), StandardCharsets.UTF_8);
+
+        List<String> events = new ArrayList<>();
+        Main.DiffListener listener = new Main.DiffListener() {
+            @Override
+            public void added(String key, String[] currentValues) {
+                events.add("added:" + key);
+            }
+
+            @Override
+            public void removed(String key, String[] previousValues) {
+                events.add("removed:" + key);
+            }
+
+            @Override
+            public void updated(Main.Update update, String[] previousValues, String[] currentValues) {
+                events.add("updated:" + update.key() + ":" + update.changes().get("status").after());
+            }
+
+            @Override
+            public void unchanged(String key, String[] currentValues) {
+                events.add("unchanged:" + key);
+            }
+        };
+        Main.RosterLoadOptions options = new Main.RosterLoadOptions(List.of("email"), "none",
+                Main.DictionaryEncoding.none());
+        Main.mergeDiff(previousPath, currentPath, options, Set.of(), "none", false, 0, listener);
+        assertEquals("removed:a@example.com,updated:b@example.com:paused,added:c@example.com,unchanged:d@example.com",
+                String.join(",", events), "merge events");
+
+        Files.write(currentPath, List.of("email,status", "b@example.com,active", "a@example.com,active"),
+                StandardCharsets.UTF_8);
+        try {
+            Main.mergeDiff(previousPath, currentPath, options, Set.of(), "none", false, 0, Main.DiffListener.NONE);
+            throw new AssertionError("merge should reject unsorted input");
+        } catch (IOException e) {
+            assertEquals(1, e.getMessage().contains("not sorted by key at row 3") ? 1 : 0, "merge unsorted row");
+        }
+    }
+
+    private static void testExternalSort() throws IOException {
+        Path input = Files.createTempFile("roster-external-sort", ".csv");
+        Files.write(input, List.of(
+                "email,name",
+                "c@example.com,Casey",
+                "B@example.com,Blair",
+                ",Nobody",
+                "a@example.com,Alex",
+                "b@example.com,Blair Again"
+        ), StandardCharsets.UTF_8);
+        Path sortDir = Files.createTempDirectory("roster-external-sort-dir");
+        Main.RosterLoadOptions options = new Main.RosterLoadOptions(List.of("email"), "lower",
+                Main.DictionaryEncoding.none());
+
+        List<String> rows = new ArrayList<>();
+        Main.Roster roster;
+        try (Main.ExternalSorter sorter = Main.ExternalSorter.create(sortDir.toString(), 1);
+             Main.SortedRoster sorted = sorter.sort(input, options);
+             Main.RosterCursor cursor = Main.RosterCursor.open(sorted)) {
+            while (cursor.next()) {
+                rows.add(cursor.key() + "=" + cursor.values()[1]);
+            }
+            roster = cursor.toRoster();
+        }
+        assertEquals("a@example.com=Alex,b@example.com=Blair,c@example.com=Casey", String.join(",", rows),
+                "external sort order");
+        assertEquals(5, roster.totalRows(), "external sort total rows");
+        assertEquals(1, roster.duplicates(), "external sort duplicates");
+        assertEquals(4, roster.invalidRows().get(0), "external sort invalid row number");
+        try (var remaining = Files.list(sortDir)) {
+            assertEquals(0, (int) remaining.count(), "external sort temp files removed");
+        }
+
+        Path shuffled = Files.createTempFile("roster-external-sort-duplicates", ".csv");
+        Files.write(shuffled, List.of(
+                "email,name",
+                "d@example.com,Dana",
+                "b@example.com,Blair",
+                "a@example.com,Alex",
+                "d@example.com,Dana Again",
+                "c@example.com,Casey",
+                "a@example.com,Alex Again",
+                "b@example.com,Blair Again"
+        ), StandardCharsets.UTF_8);
+        Main.Roster sortedDuplicates;
+        try (Main.ExternalSorter sorter = Main.ExternalSorter.create(sortDir.toString(), 1);
+             Main.SortedRoster sorted = sorter.sort(shuffled, options);
+             Main.RosterCursor cursor = Main.RosterCursor.open(sorted)) {
+            List<String> keys = new ArrayList<>();
+            while (cursor.next()) {
+                keys.add(cursor.key());
+            }
+            assertEquals("a@example.com,b@example.com,c@example.com,d@example.com", String.join(",", keys),
+                    "external sort keys with duplicates");
+            sortedDuplicates = cursor.toRoster();
+        }
+        Main.Roster loaded = Main.readRoster(shuffled, List.of("email"), "lower");
+        assertEquals("d@example.com,a@example.com,b@example.com", String.join(",", loaded.duplicateKeys()),
+                "readRoster duplicate order");
+        assertEquals(String.join(",", loaded.duplicateKeys()), String.join(",", sortedDuplicates.duplicateKeys()),
+                "external sort duplicate order");
+    }
+
+    private static void testPartitionedDiff() throws IOException {
+        Path previousPath = Files.createTempFile("roster-partition-prev", ".csv");
+        Path currentPath = Files.createTempFile("roster-partition-cur", ".csv");
+        Files.write(previousPath, List.of(
+                "email,status",
+                "d@example.com,active",
+                "b@example.com,active",
+                "a@example.com,active",
+                "b@example.com,duplicate"
+        ), StandardCharsets.UTF_8);
+        Files.write(currentPath, List.of(
+                "email,status",
+                "c@example.com,active",
+                "b@example.com,paused",
+                ",missing",
+                "d@example.com,active"
+        ), StandardCharsets.UTF_8);
+        Path partitionDir = Files.createTempDirectory("roster-partition-dir");
+
+        List<String> events = new ArrayList<>();
+        Main.DiffListener listener = new Main.DiffListener() {
+            @Override
+            public void added(String key, String[] currentValues) {
+                events.add("added:" + key);
+            }
+
+            @Override
+            public void removed(String key, String[] previousValues) {
+                events.add("removed:" + key);
+            }
+
+            @Override
+            public void updated(Main.Update update, String[] previousValues, String[] currentValues) {
+                events.add("updated:" + update.key() + ":" + update.changes().get("status").after());
+            }
+
+            @Override
+            public void unchanged(String key, String[] currentValues) {
+                events.add("unchanged:" + key);
+            }
+        };
+        Main.RosterLoadOptions options = new Main.RosterLoadOptions(List.of("email"), "none",
+                Main.DictionaryEncoding.none());
+        Main.partitionedDiff(previousPath, currentPath, options, Set.of(), "none", false, 0, 3, 2,
+                partitionDir.toString(), listener);
+        assertEquals("removed:a@example.com,updated:b@example.com:paused,added:c@example.com,unchanged:d@example.com",
+                String.join(",", events), "partitioned events");
+        try (var remaining = Files.list(partitionDir)) {
+            assertEquals(0, (int) remaining.count(), "partition temp files removed");
+        }
+    }
+
+    private static void testRowFingerprints() {
+        List<String> header = List.of("email", "name", "notes");
+        Main.FingerprintSpec spec = new Main.FingerprintSpec(Set.of("notes"), "trim");
+        Main.RosterTable previous = new Main.RosterTable(header, Main.DictionaryEncoding.none(), spec);
+        Main.RosterTable current = new Main.RosterTable(header, Main.DictionaryEncoding.none(), spec);
+        previous.add("a", new String[] {"a", "Alex", "first"});
+        current.add("a", new String[] {"a", " Alex ", "second"});
+        previous.add("b", new String[] {"b", "ab", "x"});
+        current.add("b", new String[] {"ba", "b", "x"});
+        previous.add("c", new String[] {"c", "Casey", ""});
+        current.add("c", new String[] {"c", "Cassie", ""});
+        assertEquals(1, previous.sameFingerprint(0, current, 0) ? 1 : 0, "fingerprint ignores notes and whitespace");
+        assertEquals(0, previous.sameFingerprint(1, current, 1) ? 1 : 0, "fingerprint field boundaries");
+        assertEquals(0, previous.sameFingerprint(2, current, 2) ? 1 : 0, "fingerprint detects change");
+        assertEquals(1, Main.RowFingerprinter.covers(previous.fingerprinter(), List.of("email", "name"), "trim") ? 1 : 0,
+                "fingerprint covers comparable fields");
+        assertEquals(0, Main.RowFingerprinter.covers(previous.fingerprinter(), List.of("email"), "trim") ? 1 : 0,
+                "fingerprint rejects other field sets");
+    }
+
+    private static void testRosterSnapshot() throws IOException {
+        Path source = Files.createTempFile("roster-snapshot", ".csv");
+        Files.write(source, List.of(
+                "email,name",
+                "a@example.com,Alex",
+                ",Nobody",
+                "b@example.com,Blair",
+                "a@example.com,Alex Again"
+        ), StandardCharsets.UTF_8);
+        Path snapshot = Files.createTempFile("roster-snapshot", ".snap");
+        Main.RosterLoadOptions options = new Main.RosterLoadOptions(List.of("email"), "none",
+                Main.DictionaryEncoding.none(), new Main.FingerprintSpec(Set.of(), "none"));
+        Main.Roster parsed = Main.readRoster(source, options);
+        Main.RosterSnapshot.write(snapshot, source, parsed, options);
+
+        assertEquals(1, Main.RosterSnapshot.isSnapshot(snapshot) ? 1 : 0, "snapshot detected");
+        assertEquals(0, Main.RosterSnapshot.isSnapshot(source) ? 1 : 0, "csv is not a snapshot");
+        Main.Roster loaded = Main.RosterSnapshot.read(snapshot, options);
+        assertEquals(2, loaded.rows().size(), "snapshot rows");
+        assertEquals("Blair", loaded.rows().value(loaded.rows().ordinal("b@example.com"), "name"), "snapshot value");
+        assertEquals(1, loaded.rows().sameFingerprint(1, parsed.rows(), 1) ? 1 : 0, "snapshot fingerprint");
+        assertEquals(4, loaded.totalRows(), "snapshot total rows");
+        assertEquals(1, loaded.duplicates(), "snapshot duplicates");
+        assertEquals(3, loaded.invalidRows().get(0), "snapshot invalid row");
+
+        Files.writeString(source, "b@example.com,Changed\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        try {
+            Main.RosterSnapshot.read(snapshot, options);
+            throw new AssertionError("stale snapshot should be rejected");
+        } catch (IOException e) {
+            assertEquals(1, e.getMessage().contains("is stale") ? 1 : 0, "snapshot stale");
+        }
+    }
+
+    private static void testMappedRoster() throws IOException {
+        Path path = Files.createTempFile("roster-mapped", ".csv");
+        Files.writeString(path, "email,name,notes\r\n"
+                + "a@example.com,\"Doe, Alex\",\"said \"\"hi\"\"\"\r\n"
+                + "\r\n"
+                + "  b@example.com , Blair ,caf\u00e9\r\n"
+                + ",Nobody,\r\n"
+                + "c@example.com\n"
+                + "a@example.com,Again,\n", StandardCharsets.UTF_8);
+        Main.RosterLoadOptions options = new Main.RosterLoadOptions(List.of("email"), "none",
+                Main.DictionaryEncoding.none(), new Main.FingerprintSpec(Set.of(), "trim"));
+        Main.Roster parsed = Main.readRoster(path, options);
+        Main.Roster mapped = Main.readMappedRoster(path, options);
+
+        assertEquals(parsed.rows().size(), mapped.rows().size(), "mapped rows");
+        for (int ordinal = 0; ordinal < parsed.rows().size(); ordinal++) {
+            assertEquals(String.join("|", parsed.rows().row(ordinal)), String.join("|", mapped.rows().row(ordinal)),
+                    "mapped row " + ordinal);
+            assertEquals(1, parsed.rows().sameFingerprint(ordinal, mapped.rows(), ordinal) ? 1 : 0,
+                    "mapped fingerprint " + ordinal);
+        }
+        assertEquals("Doe, Alex", mapped.rows().value(0, "name"), "mapped quoted comma");
+        assertEquals("said \"hi\"", mapped.rows().value(0, "notes"), "mapped escaped quote");
+        assertEquals(parsed.totalRows(), mapped.totalRows(), "mapped total rows");
+        assertEquals(parsed.nonEmptyCounts().toString(), mapped.nonEmptyCounts().toString(), "mapped completeness");
+        assertEquals(5, mapped.invalidRows().get(0), "mapped invalid row number");
+        assertEquals(1, mapped.duplicates(), "mapped duplicates");
+    }
+
+    private static void testCsvRecordReader() throws IOException {
+        Path path = Files.createTempFile("roster-records", ".csv");
+        Files.writeString(path, "\uFEFFemail,notes\r\n"
+                + "a@example.com,\"first line\r\nsecond, line\"\r\n"
+                + "\r\n"
+                + " b@example.com ,  padded  \n"
+                + ",\"said \"\"hi\"\"\n\"\n"
+                + "c@example.com,last", StandardCharsets.UTF_8);
+
+        try (Main.CsvRecordReader reader = Main.CsvRecordReader.open(path)) {
+            assertEquals("email,notes", String.join(",", reader.header(path)), "record header without BOM");
+            reader.next();
+            assertEquals(2, reader.lineNumber(), "record line number");
+            assertEquals("first line\r\nsecond, line", reader.get(1), "record quoted line break");
+            reader.next();
+            assertEquals(1, reader.blank() ? 1 : 0, "record blank line");
+            reader.next();
+            assertEquals(5, reader.lineNumber(), "record line number after multi-line field");
+            assertEquals("  padded  ", reader.get(1), "record keeps spaces");
+        }
+
+        Main.RosterLoadOptions options = new Main.RosterLoadOptions(List.of("email"), "none",
+                Main.DictionaryEncoding.none());
+        Main.Roster roster = Main.readRoster(path, options);
+        assertEquals(3, roster.rows().size(), "records keyed");
+        assertEquals("  padded  ", roster.rows().value(roster.rows().ordinal("b@example.com"), "notes"),
+                "records value spaces");
+        assertEquals(6, roster.invalidRows().get(0), "records invalid row number");
+        Main.Roster mapped = Main.readMappedRoster(path, options);
+        assertEquals("first line\r\nsecond, line", mapped.rows().value(0, "notes"), "mapped quoted line break");
+        assertEquals(6, mapped.invalidRows().get(0), "mapped invalid row number");
+    }
+
+    private static void testParallelParse() throws IOException {
+        Path path = Files.createTempFile("roster-parallel", ".csv");
+        StringBuilder csv = new StringBuilder("email,name,notes\r\n");
+        for (int i = 0; i < 40000; i++) {
+            String email = i % 997 == 0 ? "" : "user" + (i > 1000 && i % 1000 == 1 ? 7 : i) + "@example.com";
+            String notes = i % 3 == 0 ? "\"line one\r\nline two, with comma\"" : "plain note " + i;
+            csv.append(email).append(",Name ").append(i).append(',').append(notes).append("\r\n");
+        }
+        Files.writeString(path, csv, StandardCharsets.UTF_8);
+        Main.RosterLoadOptions options = new Main.RosterLoadOptions(List.of("email"), "none",
+                Main.DictionaryEncoding.none(), new Main.FingerprintSpec(Set.of(), "none"));
+
+        Main.Roster sequential = Main.readRoster(path, options);
+        Main.Roster parallel = Main.readRosterParallel(path, options, 4);
+        assertEquals(sequential.rows().size(), parallel.rows().size(), "parallel rows");
+        for (int ordinal = 0; ordinal < sequential.rows().size(); ordinal += 101) {
+            assertEquals(sequential.rows().key(ordinal), parallel.rows().key(ordinal), "parallel row order " + ordinal);
+            assertEquals(String.join("|", sequential.rows().row(ordinal)), String.join("|", parallel.rows().row(ordinal)),
+                    "parallel row values " + ordinal);
+            assertEquals(1, sequential.rows().sameFingerprint(ordinal, parallel.rows(), ordinal) ? 1 : 0,
+                    "parallel fingerprint " + ordinal);
+        }
+        assertEquals("Name 7", parallel.rows().value(parallel.rows().ordinal("user7@example.com"), "name"),
+                "parallel first row wins");
+        assertEquals(sequential.duplicateKeys().toString(), parallel.duplicateKeys().toString(), "parallel duplicates");
+        assertEquals(sequential.invalidRows().toString(), parallel.invalidRows().toString(), "parallel invalid rows");
+        assertEquals(sequential.totalRows(), parallel.totalRows(), "parallel total rows");
+        assertEquals(sequential.nonEmptyCounts().toString(), parallel.nonEmptyCounts().toString(),
+                "parallel completeness");
+        assertEquals(sequential.missingKeyCounts().toString(), parallel.missingKeyCounts().toString(),
+                "parallel missing keys");
+    }
+
+    private static void testConcurrentLoad() throws IOException {
+        Path previousPath = Files.createTempFile("roster-concurrent-prev", ".csv");
+        Path currentPath = Files.createTempFile("roster-concurrent-cur", ".csv");
+        List<String> previousLines = new ArrayList<>(List.of("email,group"));
+        List<String> currentLines = new ArrayList<>(List.of("email,group"));
+        for (int i = 0; i < 20000; i++) {
+            previousLines.add("user" + i + "@example.com,group" + (i % 50));
+            currentLines.add("user" + i + "@example.com,group" + ((i + 7) % 60));
+        }
+        Files.write(previousPath, previousLines, StandardCharsets.UTF_8);
+        Files.write(currentPath, currentLines, StandardCharsets.UTF_8);
+        Main.RosterLoadOptions options = new Main.RosterLoadOptions(List.of("email"), "none",
+                Main.DictionaryEncoding.parse("group"));
+
+        Main.RosterPair rosters = Main.loadConcurrently(() -> Main.readRoster(previousPath, options),
+                () -> Main.readRoster(currentPath, options));
+        Main.RosterTable previous = rosters.previous().rows();
+        Main.RosterTable current = rosters.current().rows();
+        int group = previous.columnIndex("group");
+        assertEquals(1, previous.column(group).dictionary() == current.column(group).dictionary() ? 1 : 0,
+                "concurrent shared dictionary");
+        assertEquals(60, previous.column(group).dictionary().size(), "concurrent dictionary size");
+        for (int ordinal = 0; ordinal < previous.size(); ordinal += 37) {
+            int other = current.ordinal(previous.key(ordinal));
+            boolean sameValue = previous.value(ordinal, group).equals(current.value(other, group));
+            boolean sameCode = previous.column(group).code(ordinal) == current.column(group).code(other);
+            assertEquals(sameValue ? 1 : 0, sameCode ? 1 : 0, "concurrent codes agree " + ordinal);
+        }
+    }
+
+    private static void testCsvWriter() throws IOException {
+        Path output = Files.createTempFile("roster-csv-writer", ".csv");
+        try (Main.CsvWriter writer = Main.CsvWriter.open(output)) {
+            writer.record(List.of("email", "note"));
+            writer.field("a@example.com").field("said \"hi\", left").endRecord();
+            writer.field("b@example.com").field("two\nlines").endRecord();
+            writer.field("c@example.com").field(null).endRecord();
+        }
+        String expected = String.join(System.lineSeparator(), "email,note",
+                "a@example.com,\"said \"\"hi\"\", left\"", "b@example.com,\"two\nlines\"", "c@example.com,")
+                + System.lineSeparator();
+        assertEquals(expected, Files.readString(output, StandardCharsets.UTF_8), "csv writer output");
+    }
+
+    private static void testGzipRoster() throws IOException {
+        Path plain = Files.createTempFile("roster-gzip", ".csv");
+        Path compressed = Files.createTempFile("roster-gzip", ".csv.gz");
+        List<String> lines = List.of("email,name", "a@example.com,\"Ada\nLovelace\"", "b@example.com,Ben");
+        Files.write(plain, lines, StandardCharsets.UTF_8);
+        Main.Compression.writeString(compressed, String.join("\n", lines) + "\n");
+
+        Main.Roster expected = Main.readRoster(plain, List.of("email"), "none");
+        Main.Roster actual = Main.readRoster(compressed, List.of("email"), "none");
+        assertEquals(expected.totalRows(), actual.totalRows(), "gzip total rows");
+        int name = actual.rows().columnIndex("name");
+        assertEquals("Ada\nLovelace", actual.rows().value(actual.rows().ordinal("a@example.com"), name),
+                "gzip quoted value");
+        assertEquals("Ben", actual.rows().value(actual.rows().ordinal("b@example.com"), name), "gzip last value");
+
+        Path zstd = Files.createTempFile("roster-gzip", ".csv.zst");
+        try {
+            Main.readRoster(zstd, List.of("email"), "none");
+            throw new AssertionError("zstd input should be rejected");
+        } catch (IOException expectedFailure) {
+            assertEquals(1, expectedFailure.getMessage().contains("zstd") ? 1 : 0, "zstd rejected");
+        }
+    }
+
+    private static void testStreamingJson() throws IOException {
+        Path previousPath = Files.createTempFile("roster-json-prev", ".csv");
+        Path currentPath = Files.createTempFile("roster-json-cur", ".csv");
+        Files.write(previousPath, List.of("email,status", "a@example.com,active", "b@example.com,active"),
+                StandardCharsets.UTF_8);
+        Files.write(currentPath, List.of("email,status", "b@example.com,\"on \"\"hold\"\"\"", "c@example.com,active"),
+                StandardCharsets.UTF_8);
+        Main.RosterLoadOptions options = new Main.RosterLoadOptions(List.of("email"), "none",
+                Main.DictionaryEncoding.none());
+        Main.Report report = Main.mergeDiff(previousPath, currentPath, options, Set.of(), "none", false, 0,
+                Main.DiffListener.NONE);
+
+        Path output = Files.createTempFile("roster-report", ".json.gz");
+        report.writeJson(output, "prev.csv", "cur.csv");
+        String json;
+        try (GZIPInputStream in = new GZIPInputStream(Files.newInputStream(output))) {
+            json = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        assertEquals(1, json.startsWith("{\n  \"previous\": \"prev.csv\",\n") ? 1 : 0, "json header");
+        assertEquals(1, json.contains("  \"added\": [\n    \"c@example.com\"\n  ],\n") ? 1 : 0, "json added");
+        assertEquals(1, json.contains("  \"removed\": [\n    \"a@example.com\"\n  ],\n") ? 1 : 0, "json removed");
+        assertEquals(1, json.contains("\"after\": \"on \\\"hold\\\"\"") ? 1 : 0, "json escaped change");
+        assertEquals(1, json.endsWith("  ]\n}\n") ? 1 : 0, "json footer");
+    }
+
+    private static void testNdjsonEvents() throws IOException {
+        Path previousPath = Files.createTempFile("roster-ndjson-prev", ".csv");
+        Path currentPath = Files.createTempFile("roster-ndjson-cur", ".csv");
+        Files.write(previousPath, List.of("email,status", "a@example.com,active", "b@example.com,active",
+                "d@example.com,active"), StandardCharsets.UTF_8);
+        Files.write(currentPath, List.of("email,status", "b@example.com,\"tab\there\"", "c@example.com,active",
+                "d@example.com,active"), StandardCharsets.UTF_8);
+        Main.RosterLoadOptions options = new Main.RosterLoadOptions(List.of("email"), "none",
+                Main.DictionaryEncoding.none());
+        Path output = Files.createTempFile("roster-changes", ".ndjson");
+        List<String> seen = new ArrayList<>();
+        Main.DiffListener counter = new Main.DiffListener() {
+            @Override
+            public void unchanged(String key, String[] currentValues) {
+                seen.add(key);
+            }
+        };
+        try (Main.DiffListener events = Main.DiffListener.combine(new Main.NdjsonSink(output), counter,
+                Main.DiffListener.NONE)) {
+            Main.mergeDiff(previousPath, currentPath, options, Set.of(), "none", false, 0, events);
+        }
+
+        List<String> lines = Files.readAllLines(output, StandardCharsets.UTF_8);
+        assertEquals(3, lines.size(), "ndjson event count");
+        assertEquals("{\"event\":\"removed\",\"key\":\"a@example.com\",\"row\":{\"email\":\"a@example.com\","
+                + "\"status\":\"active\"}}", lines.get(0), "ndjson removed");
+        assertEquals("{\"event\":\"updated\",\"key\":\"b@example.com\",\"changes\":{\"status\":"
+                + "{\"before\":\"active\",\"after\":\"tab\\there\"}}}", lines.get(1), "ndjson updated");
+        assertEquals("{\"event\":\"added\",\"key\":\"c@example.com\",\"row\":{\"email\":\"c@example.com\","
+                + "\"status\":\"active\"}}", lines.get(2), "ndjson added");
+        assertEquals("d@example.com", String.join(",", seen), "ndjson combined listener");
+    }
+
+    private static void testColumnarExport() throws IOException {
+        Path dir = Files.createTempDirectory("roster-columnar");
+        Main.ExportFormat format = Main.ExportFormat.parse("columnar", false);
+        int rows = Main.ColumnarWriter.ROW_GROUP_ROWS + 10;
+        try (Main.RecordWriter writer = format.open(dir, "status", List.of("key", "status", "changed_fields"),
+                Set.of("status"))) {
+            for (int i = 0; i < rows; i++) {
+                writer.field("user" + i + "@example.com").field(i % 3 == 0 ? "updated" : "unchanged");
+                if (i % 3 == 0) {
+                    writer.field("cohort;\"notes\"");
+                }
+                writer.endRecord();
+            }
+        }
+
+        try (Main.ColumnarReader reader = Main.ColumnarReader.open(dir.resolve("status.rcol"))) {
+            assertEquals("key,status,changed_fields", String.join(",", reader.header()), "columnar header");
+            assertEquals(1, reader.categorical(1) ? 1 : 0, "columnar status categorical");
+            assertEquals(0, reader.categorical(0) ? 1 : 0, "columnar key text");
+            int seen = 0;
+            int groups = 0;
+            while (reader.nextGroup()) {
+                groups++;
+                assertEquals(1, reader.dictionary(0) == null ? 1 : 0, "columnar unique keys plain");
+                assertEquals(2, reader.dictionary(1).length, "columnar status dictionary");
+                for (int row = 0; row < reader.rows(); row++, seen++) {
+                    assertEquals("user" + seen + "@example.com", reader.value(0, row), "columnar key " + seen);
+                    assertEquals(seen % 3 == 0 ? "cohort;\"notes\"" : "", reader.value(2, row), "columnar padded " + seen);
+                }
+            }
+            assertEquals(rows, seen, "columnar rows");
+            assertEquals(2, groups, "columnar row groups");
+        }
+
+        try (Main.RecordWriter writer = format.open(dir, "small", List.of("key", "status"), Set.of("status"))) {
+            writer.field("only@example.com").endRecord();
+        }
+        try (Main.ColumnarReader reader = Main.ColumnarReader.open(dir.resolve("small.rcol"))) {
+            assertEquals(1, reader.nextGroup() ? 1 : 0, "columnar small group");
+            assertEquals(1, reader.rows(), "columnar small rows");
+            assertEquals("only@example.com", reader.value(0, 0), "columnar small key");
+            assertEquals("", reader.value(1, 0), "columnar small padded status");
+            assertEquals(0, reader.nextGroup() ? 1 : 0, "columnar small end");
+        }
+
+        try {
+            Main.ExportFormat.parse("parquet", false);
+            throw new AssertionError("unknown export format should be rejected");
+        } catch (IOException expected) {
+            assertEquals(1, expected.getMessage().contains("parquet") ? 1 : 0, "columnar format rejected");
+        }
+    }
+
+    private static void testKeyClassification() {
+        List<Main.Update> updates = new ArrayList<>(List.of(
+                new Main.Update("f", Map.of("status", new Main.Change("a", "b"))),
+                new Main.Update("b", Map.of("name", new Main.Change("c", "d")))));
+        Main.KeyClassification keys = Main.KeyClassification.of(Set.of("e", "a"), List.of("d"), updates,
+                List.of("g", "c"));
+
+        StringBuilder order = new StringBuilder();
+        for (int i = 0; i < keys.size(); i++) {
+            order.append(keys.key(i)).append('=').append(Main.KeyClassification.statusName(keys.status(i)));
+            if (keys.updateIndex(i) >= 0) {
+                order.append('#').append(keys.updates().get(keys.updateIndex(i)).key());
+            }
+            order.append(' ');
+        }
+        assertEquals("a=added b=updated#b c=unchanged d=removed e=added f=updated#f g=unchanged ",
+                order.toString(), "classification order");
+        assertEquals("b,f", keys.updates().get(0).key() + "," + keys.updates().get(1).key(), "classification updates");
+        assertEquals("a", String.join(",", keys.keys(Main.KeyClassification.ADDED, 1)), "classification limit");
+        assertEquals("c,g", String.join(",", keys.keys(Main.KeyClassification.UNCHANGED, Integer.MAX_VALUE)),
+                "classification unchanged");
+    }
+
+    private static void testNormalizedEquals() {
+        assertEquals(1, Main.normalizedEquals("  Ada ", "Ada", "trim") ? 1 : 0, "trim equal");
+        assertEquals(0, Main.normalizedEquals("Ada  Lovelace", "Ada Lovelace", "trim") ? 1 : 0, "trim keeps inner");
+        assertEquals(1, Main.normalizedEquals(" Ada \t\n Lovelace ", "Ada Lovelace", "collapse") ? 1 : 0,
+                "collapse equal");
+        assertEquals(0, Main.normalizedEquals("Ada\u0001Lovelace", "Ada Lovelace", "collapse") ? 1 : 0,
+                "collapse keeps control chars");
+        assertEquals(0, Main.normalizedEquals("AdaLovelace", "Ada Lovelace", "collapse") ? 1 : 0,
+                "collapse needs a space");
+        assertEquals(1, Main.normalizedEquals(null, " \t", "collapse") ? 1 : 0, "collapse null is blank");
+        assertEquals(0, Main.normalizedEquals(" Ada", "Ada", "none") ? 1 : 0, "none exact");
+        assertEquals("Ada Lovelace", Main.normalizeFieldValue(" Ada \r\n\tLovelace\f", "collapse"),
+                "collapse normalized value");
+
+        Random random = new Random(42);
+        char[] alphabet = {' ', '\t', '\n', '\r', '\u000b', '\u0001', '\u00a0', 'a', 'b'};
+        for (int round = 0; round < 20000; round++) {
+            String left = randomValue(random, alphabet);
+            String right = random.nextBoolean() ? left.replace("a", " a ") : randomValue(random, alphabet);
+            for (String mode : List.of("trim", "collapse")) {
+                String expectedLeft = mode.equals("trim") ? left.trim() : left.trim().replaceAll("\\s+", " ");
+                String expectedRight = mode.equals("trim") ? right.trim() : right.trim().replaceAll("\\s+", " ");
+                assertEquals(expectedLeft.equals(expectedRight) ? 1 : 0,
+                        Main.normalizedEquals(left, right, mode) ? 1 : 0, mode + " matches regex " + round);
+                assertEquals(expectedLeft, Main.normalizeFieldValue(left, mode), mode + " value " + round);
+            }
+        }
+    }
+
+    private static String randomValue(Random random, char[] alphabet) {
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(8);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet[random.nextInt(alphabet.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static void testCompositeKeys() throws IOException {
+        Path temp = Files.createTempFile("roster-composite", ".csv");
+        Files.write(temp, List.of("a,b,v", "x||y,z,1", "x,y||z,2", "\"p|\",q,3", "p,|q,4", "r\\,s,5"),
+                StandardCharsets.UTF_8);
+        Main.Roster roster = Main.readRoster(temp, List.of("a", "b"), "none");
+        assertEquals(5, roster.rows().size(), "composite keys distinct");
+        assertEquals(0, roster.duplicates(), "composite keys no collisions");
+        assertEquals(0, roster.rows().ordinal("x\\|\\|y||z"), "composite escaped first part");
+        assertEquals(1, roster.rows().ordinal("x||y\\|\\|z"), "composite escaped second part");
+        assertEquals(4, roster.rows().ordinal("r\\\\||s"), "composite escaped backslash");
+
+        Main.KeyIndex index = new Main.KeyIndex(4);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, index.add("user" + i + "@example.com"), "key index add " + i);
+        }
+        assertEquals(1000, index.size(), "key index size");
+        for (int i = 0; i < 1000; i += 7) {
+            assertEquals(i, index.ordinal("user" + i + "@example.com"), "key index lookup " + i);
+            assertEquals("user" + i + "@example.com", index.key(i), "key index key " + i);
+        }
+        assertEquals(-1, index.ordinal("missing@example.com"), "key index missing");
+    }
+
+    private static void testPartitionedCompositeKeys() throws IOException {
+        Path previousPath = Files.createTempFile("roster-partition-keys-prev", ".csv");
+        Path currentPath = Files.createTempFile("roster-partition-keys-cur", ".csv");
+        List<String> previousLines = new ArrayList<>(List.of("email,grp,status"));
+        List<String> currentLines = new ArrayList<>(List.of("email,grp,status"));
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 3300; i++) {
+            String key = "u" + i + "@example.com||g" + (i % 7);
+            String row = "u" + i + "@example.com,g" + (i % 7) + ",";
+            if (i < 3000) {
+                previousLines.add(row + "active");
+            }
+            if (i < 3000 && i % 10 == 0) {
+                expected.add("removed:" + key);
+            } else if (i < 3000 && i % 10 == 1) {
+                currentLines.add(row + "paused");
+                expected.add("updated:" + key);
+            } else {
+                currentLines.add(row + "active");
+                if (i >= 3000) {
+                    expected.add("added:" + key);
+                }
+            }
+        }
+        Files.write(previousPath, previousLines, StandardCharsets.UTF_8);
+        Files.write(currentPath, currentLines, StandardCharsets.UTF_8);
+
+        List<String> events = new ArrayList<>();
+        Main.DiffListener listener = new Main.DiffListener() {
+            @Override
+            public synchronized void added(String key, String[] currentValues) {
+                events.add("added:" + key);
+            }
+
+            @Override
+            public synchronized void removed(String key, String[] previousValues) {
+                events.add("removed:" + key);
+            }
+
+            @Override
+            public synchronized void updated(Main.Update update, String[] previousValues, String[] currentValues) {
+                events.add("updated:" + update.key());
+            }
+        };
+        Main.RosterLoadOptions options = new Main.RosterLoadOptions(List.of("email", "grp"), "none",
+                Main.DictionaryEncoding.none());
+        Main.partitionedDiff(previousPath, currentPath, options, Set.of(), "none", false, 0, 6, 3,
+                Files.createTempDirectory("roster-partition-keys-dir").toString(), listener);
+        events.sort(String::compareTo);
+        expected.sort(String::compareTo);
+        assertEquals(expected.size(), events.size(), "partitioned composite key events");
+        assertEquals(String.join(",", expected), String.join(",", events), "partitioned composite keys");
+    }
+
+    private static void testProbeClassification() throws IOException {
+        Path previousPath = Files.createTempFile("roster-probe-prev", ".csv");
+        Path currentPath = Files.createTempFile("roster-probe-cur", ".csv");
+        Files.write(previousPath, List.of("email,status", "a@example.com,active", "b@example.com,active",
+                "c@example.com,active"), StandardCharsets.UTF_8);
+        Files.write(currentPath, List.of("email,status", "e@example.com,new", "c@example.com,active",
+                "b@example.com,paused", "d@example.com,new"), StandardCharsets.UTF_8);
+        Main.RosterTable previous = Main.readRoster(previousPath, List.of("email"), "none").rows();
+        Main.RosterTable current = Main.readRoster(currentPath, List.of("email"), "none").rows();
+
+        assertEquals(2, current.ordinal("b@example.com", previous.keyHash(1)), "probe by stored hash");
+        Main.RowComparer comparer = new Main.RowComparer(previous, current, List.of("status"), "none");
+        comparer.compareRange(0, 2);
+        comparer.compareRange(2, 3);
+        assertEquals("e@example.com,d@example.com", String.join(",", comparer.unmatchedCurrent()), "probe added");
+    }
+
+    private static void testBulkWriter() throws SQLException {
+        List<String> log = new ArrayList<>();
+        Connection connection = standInConnection(log);
+        List<Main.BulkColumn> columns = List.of(new Main.BulkColumn("name", Types.VARCHAR),
+                new Main.BulkColumn("pct", Types.NUMERIC));
+
+        // No PostgreSQL driver here, so --db-copy falls back to batches of --db-batch-size rows.
+        try (Main.BulkWriter writer = Main.BulkWriter.open(connection, "s.t", columns, new Main.DbWriteOptions(2, true))) {
+            for (int i = 0; i < 5; i++) {
+                writer.row("r" + i, i == 4 ? null : 0.5);
+            }
+            assertEquals(5, (int) writer.finish(), "batched rows");
+        }
+        assertEquals("INSERT INTO s.t (name, pct) VALUES (?,?)", log.get(0), "batch sql");
+        assertEquals("batch2", log.get(5), "first batch");
+        assertEquals("setNull2=2", log.get(log.size() - 2), "batch null");
+        assertEquals("batch1", log.get(log.size() - 1), "last batch");
+
+        ByteArrayOutputStream copied = new ByteArrayOutputStream();
+        long[] ended = new long[1];
+        Main.CopyStream stream = new Main.CopyStream() {
+            @Override
+            public void write(byte[] data, int offset, int length) {
+                copied.write(data, offset, length);
+            }
+
+            @Override
+            public long end() {
+                ended[0]++;
+                return 2;
+            }
+
+            @Override
+            public void cancel() {
+                ended[0] = -1;
+            }
+        };
+        try (Main.CopyWriter writer = new Main.CopyWriter(2, stream)) {
+            writer.row("a\tb\\c", 0.25);
+            writer.row("line\nbreak", null);
+            assertEquals(2, (int) writer.finish(), "copy rows");
+        }
+        assertEquals("a\\tb\\\\c\t0.25\nline\\nbreak\t\\N\n", copied.toString(StandardCharsets.UTF_8), "copy text");
+        assertEquals(1, (int) ended[0], "copy ended once");
+        assertEquals("COPY s.t (name, pct) FROM STDIN", Main.CopyWriter.copySql("s.t", columns), "copy sql");
+    }
+
+    private static Connection standInConnection(List<String> log) {
+        return standInConnection(log, 0);
+    }
+
+    /**
+     * JDBC stand-in that records prepared SQL, statements, parameters, commits and the size of each executed batch.
+     * Queries return {@code schemaVersion}; a negative version fails them as a missing table would.
+     */
+    private static Connection standInConnection(List<String> log, int schemaVersion) {
+        int[] pending = new int[1];
+        PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance(MainTest.class.getClassLoader(),
+                new Class<?>[] {PreparedStatement.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "setObject", "setNull" -> {
+                        log.add(method.getName() + args[0] + "=" + args[1]);
+                        yield null;
+                    }
+                    case "addBatch" -> {
+                        pending[0]++;
+                        yield null;
+                    }
+                    case "executeBatch" -> {
+                        log.add("batch" + pending[0]);
+                        int[] counts = new int[pending[0]];
+                        pending[0] = 0;
+                        yield counts;
+                    }
+                    default -> null;
+                });
+        Statement plain = (Statement) Proxy.newProxyInstance(MainTest.class.getClassLoader(),
+                new Class<?>[] {Statement.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "execute" -> {
+                        log.add((String) args[0]);
+                        yield false;
+                    }
+                    case "executeQuery" -> {
+                        log.add((String) args[0]);
+                        if (schemaVersion < 0) {
+                            throw new SQLException("relation does not exist", "42P01");
+                        }
+                        yield Proxy.newProxyInstance(MainTest.class.getClassLoader(), new Class<?>[] {ResultSet.class},
+                                (result, call, callArgs) -> switch (call.getName()) {
+                                    case "next" -> true;
+                                    case "getInt" -> schemaVersion;
+                                    default -> null;
+                                });
+                    }
+                    default -> null;
+                });
+        return (Connection) Proxy.newProxyInstance(MainTest.class.getClassLoader(),
+                new Class<?>[] {Connection.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "prepareStatement" -> {
+                        log.add((String) args[0]);
+                        yield statement;
+                    }
+                    case "createStatement" -> plain;
+                    case "commit", "rollback" -> {
+                        log.add(method.getName());
+                        yield null;
+                    }
+                    case "isWrapperFor" -> false;
+                    default -> null;
+                });
+    }
+
+    private static void testDbChangeLog() throws IOException, SQLException {
+        Path spool = Files.createTempFile("roster-changes", ".spool");
+        Main.DbChangeLog changeLog = new Main.DbChangeLog(spool);
+        Path previousPath = Files.createTempFile("roster-changes-prev", ".csv");
+        Path currentPath = Files.createTempFile("roster-changes-cur", ".csv");
+        Files.write(previousPath, List.of("email,cohort", "a@example.com,2024", "b@example.com,2024"),
+                StandardCharsets.UTF_8);
+        Files.write(currentPath, List.of("email,cohort", "b@example.com,2025", "c@example.com,2025"),
+                StandardCharsets.UTF_8);
+        try (changeLog) {
+            Main.mergeDiff(previousPath, currentPath, new Main.RosterLoadOptions(List.of("email"), "none",
+                            Main.DictionaryEncoding.parse(null), new Main.FingerprintSpec(Set.of(), "none")),
+                    Set.of(), "none", false, 0, changeLog);
+        }
+        assertEquals(5, (int) changeLog.rows(), "spooled changes");
+
+        List<String> log = new ArrayList<>();
+        UUID runId = UUID.fromString("00000000-0000-0000-0000-00000000002a");
+        long loaded = changeLog.load(standInConnection(log), "audit", runId, Instant.parse("2026-10-16T20:00:00Z"),
+                new Main.DbWriteOptions(100, false));
+        assertEquals(5, (int) loaded, "loaded changes");
+        assertEquals(0, Files.exists(spool) ? 1 : 0, "spool removed");
+
+        List<String> values = new ArrayList<>();
+        for (String entry : log) {
+            if (entry.startsWith("set")) {
+                values.add(entry.startsWith("setNull") ? "null" : entry.substring(entry.indexOf('=') + 1));
+            }
+        }
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < values.size(); i += 7) {
+            rows.add(String.join("|", values.subList(i + 2, i + 7)));
+        }
+        assertEquals("INSERT INTO audit.key_changes (run_id, recorded_at, change_type, record_key, field_name, "
+                + "before_value, after_value) VALUES (?,?,?,?,?,?,?)", log.get(0), "change insert");
+        assertEquals(runId + "|2026-10-16T20:00Z", values.get(0) + "|" + values.get(1), "change run");
+        assertEquals(String.join("\n",
+                "removed|a@example.com|email|a@example.com|null",
+                "removed|a@example.com|cohort|2024|null",
+                "updated|b@example.com|cohort|2024|2025",
+                "added|c@example.com|email|null|c@example.com",
+                "added|c@example.com|cohort|null|2025"), String.join("\n", rows), "change rows");
+        assertEquals("batch5", log.get(log.size() - 1), "change batch");
+
+        log.clear();
+        Main.DbLogger.ensureChangePartition(standInConnection(log), "audit", Instant.parse("2026-12-31T23:30:00Z"));
+        assertEquals(String.join(";",
+                "SELECT to_regclass('audit.key_changes_202612')",
+                "SELECT pg_advisory_xact_lock(hashtext('audit.key_changes'))",
+                "CREATE TABLE IF NOT EXISTS audit.key_changes_202612 PARTITION OF audit.key_changes "
+                        + "FOR VALUES FROM ('2026-12-01 00:00:00+00') TO ('2027-01-01 00:00:00+00')",
+                "commit"), String.join(";", log), "monthly partition");
+    }
+
+    private static void testSchemaMigrations() throws SQLException {
+        int latest = Main.DbLogger.migrations("audit").size();
+        List<String> log = new ArrayList<>();
+        Main.DbLogger.ensureSchema(standInConnection(log, latest), "audit");
+        assertEquals("SELECT coalesce(max(version), 0) FROM audit.schema_migrations", String.join(";", log),
+                "current schema is one query");
+
+        log.clear();
+        Main.DbLogger.ensureSchema(standInConnection(log, -1), "audit");
+        assertEquals("SELECT pg_advisory_xact_lock(hashtext('audit.schema_migrations'))", log.get(1), "migration lock");
+        assertEquals("CREATE SCHEMA IF NOT EXISTS audit", log.get(2), "migration schema");
+        List<String> inserts = new ArrayList<>();
+        for (String entry : log) {
+            if (entry.startsWith("INSERT INTO audit.schema_migrations")) {
+                inserts.add(entry.substring(entry.indexOf("VALUES")));
+            }
+        }
+        assertEquals("VALUES (1);VALUES (2)", String.join(";", inserts), "migration versions");
+        // version probe, lock, schema, migrations table, re-probe, DDL, one insert per version, commit
+        assertEquals(5 + Main.DbLogger.migrations("audit").stream().mapToInt(List::size).sum() + latest + 1,
+                log.size(), "migration statements");
+        assertEquals("commit", log.get(log.size() - 1), "migration commit");
+    }
+
+    private static void testSchemaReference() throws IOException {
+        String reference = Files.readString(Path.of("db/schema.sql"), StandardCharsets.UTF_8).replaceAll("\\s+", " ");
+        List<List<String>> migrations = Main.DbLogger.migrations("gs_roster_reconciler");
+        for (List<String> step : migrations) {
+            for (String ddl : step) {
+                String statement = ddl.strip().replaceAll("\\s+", " ") + ";";
+                if (!reference.contains(statement)) {
+                    throw new AssertionError("db/schema.sql is missing: " + statement);
+                }
+            }
+        }
+        assertEquals(1, reference.contains("VALUES (1), (2) ON CONFLICT") ? 1 : 0, "schema.sql versions");
+        assertEquals(2, migrations.size(), "schema.sql covers every migration");
+    }
+
     private static void assertEquals(int expected, int actual, String label) {
         if (expected != actual) {
             throw new AssertionError(label + " expected " + expected + " but got " + actual);